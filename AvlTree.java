@@ -4,17 +4,22 @@
 package oop.ex4.data_structures;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 /**
  * This class represents an AVL tree. It can add, remove and search nodes within the tree.
  * By using the AVL rotation algorithms, every time a node is deleted or added, it ensures 
  * that no two sub nodes have a height difference that is larger than 1.
+ * For write heavy workloads the tree can be created in a relaxed mode, that allows a larger height
+ * difference. The tree then rotates less often, in exchange for slightly deeper lookups.
  * @author alonav11
  *
  */
 public class AvlTree implements Iterable<Integer>{
 	
-	private static final int MAXIMAL_NODE_DIFFERENCE = 1;
+	/* The height difference bound of a regular AVL tree, shared with SnapshotAvlTree. */
+	static final int MAXIMAL_NODE_DIFFERENCE = 1;
 	private static final int NULL_MARKER = -1;
 	private static final int DEPTH_OF_ROOT = 0;
 	private static final int NODE_NOT_FOUND = -1;
@@ -24,6 +29,9 @@ public class AvlTree implements Iterable<Integer>{
 	private static final int MIN_NODE_FORMULA_CONSTANT = 1;
 	private static final int PREVIOUS_LEVELS_IN_RECUSRSION = 2;
 	
+	/* The number of lookups that containsAll() advances together, one tree level at a time. */
+	private static final int LOOKUP_GROUP_SIZE = 16;
+	
 	private static final int RR_ROTATION = 1, 
 							 LL_ROTATION = 2, 
 							 RL_ROTATION = 3, 
@@ -31,8 +39,13 @@ public class AvlTree implements Iterable<Integer>{
 	
 	
 	
+	private final int maxHeightDifference;
 	private int size;
 	private AvlNode root;
+	private AvlNode minNode; // The nodes holding the smallest and largest keys, kept up to date
+	private AvlNode maxNode; // by add() and delete() so the extremes are reached in O(1).
+	private HotKeyCache hotKeyCache; // null unless enabled.
+	private long rotationCount; // Single rotations made since the tree was created.
 	
 		
 	/**
@@ -73,8 +86,29 @@ public class AvlTree implements Iterable<Integer>{
 	 * The default constructor;
 	 */
 	public AvlTree(){
+		this(MAXIMAL_NODE_DIFFERENCE);
+	}
+	
+	/**
+	 * A constructor for a tree in relaxed mode, in which the heights of the two sub trees of
+	 * every node may differ by up to the given bound, instead of 1. A larger bound means fewer
+	 * rotations on add() and delete(), while the depth of the tree stays logarithmic in its size
+	 * (with a constant that grows with the bound).
+	 * @param maxHeightDifference The largest allowed height difference between two sibling
+	 * sub trees. 1 gives a regular AVL tree.
+	 * @throws IllegalArgumentException If the bound is smaller than 1.
+	 */
+	public AvlTree(int maxHeightDifference){
+		if(maxHeightDifference < MAXIMAL_NODE_DIFFERENCE){
+			throw new IllegalArgumentException();
+		}
+		this.maxHeightDifference = maxHeightDifference;
 		size = 0;	
 		root = null;
+		minNode = null;
+		maxNode = null;
+		hotKeyCache = null;
+		rotationCount = 0;
 	}
 	
 	/**
@@ -98,22 +132,60 @@ public class AvlTree implements Iterable<Integer>{
 	 * AvlTree. This means that for every node or any other internal object of the given
 	 * tree, a new, identical object, is instantiated for the new tree (the internal object
 	 * is not simply referenced from it). The new tree must contain all the values of the given
-	 * tree, but not necessarily in the same structure.
+	 * tree, but not necessarily in the same structure. The copy keeps the height difference bound
+	 * of the given tree, so copying a relaxed tree gives a relaxed tree.
 	 * @param avlTree An AVL tree.
 	 */
 	public AvlTree(AvlTree avlTree){
-		this(); //Calling the default constructor that initializes the data members.
+		//Calling the constructor that initializes the data members with the copied tree's bound.
+		this((avlTree != null) ? avlTree.maxHeightDifference : MAXIMAL_NODE_DIFFERENCE);
 		if(avlTree != null){
 			for(int key:avlTree){
 				add(key);
 			}
 		}
-			
+
 	}
-	
 
-	
-	
+	/*
+	 * Builds a balanced tree out of the given range of a strictly ascending array, in linear time.
+	 * The middle key of every range becomes the root of its subtree, so the two subtrees of every
+	 * node differ in size by at most one and the AVL requirements hold without any rotations.
+	 * It is the responsibility of the caller to make sure the keys are sorted and without duplicates.
+	 */
+	static AvlTree buildFromSorted(int[] sortedKeys, int from, int to){
+		AvlTree tree = new AvlTree();
+		tree.root = buildSubtree(sortedKeys, from, to, null);
+		tree.size = to - from;
+		tree.minNode = tree.getMin();
+		tree.maxNode = tree.getMax();
+		return tree;
+	}
+
+	/*
+	 * Recursively builds the subtree holding the keys in the range [from, to) of the given sorted
+	 * array under the given parent, and returns its root (null for an empty range).
+	 */
+	private static AvlNode buildSubtree(int[] sortedKeys, int from, int to, AvlNode parent){
+		int middle;
+		AvlNode node;
+
+		if(from >= to){
+			return null;
+		}
+
+		middle = (from + to) >>> 1;
+		node = new AvlNode(sortedKeys[middle], parent);
+		node.setLeftChild(buildSubtree(sortedKeys, from, middle, node));
+		node.setRightChild(buildSubtree(sortedKeys, middle + 1, to, node));
+		node.setHeight(Math.max(getNodeHeight(node.getLeftChild()),
+				getNodeHeight(node.getRightChild())) + 1);
+		return node;
+	}
+
+
+
+
 	/**
 	 * Add a new Node with the given key to the tree.
 	 * 
@@ -128,6 +200,9 @@ public class AvlTree implements Iterable<Integer>{
 		
 		if(root == null){
 			root = new AvlNode(newValue, null); //If the tree was empty, adds the value as the new root.
+			invalidateCachedKey(newValue);
+			minNode = root;
+			maxNode = root;
 			size ++;
 			return true;
 		}else{
@@ -141,6 +216,7 @@ public class AvlTree implements Iterable<Integer>{
 			if(addedNode == null){ // If the added node is null, the node already existed in the tree.
 				return false;
 			}else{
+				invalidateCachedKey(newValue); // It may be cached as absent.
 				try{
 					adjustTree(addedNode.getParent()); // The new node has no children, so it's height is 0 
 					// and cannot be unbalanced. Therefore adjusting the node's heights and rotating starts 
@@ -151,6 +227,12 @@ public class AvlTree implements Iterable<Integer>{
 					return false;
 				}
 				
+				// Rotations never replace node objects, so only a new extreme key changes them.
+				if(newValue < minNode.getKey()){
+					minNode = addedNode;
+				}else if(newValue > maxNode.getKey()){
+					maxNode = addedNode;
+				}
 				size ++;
 				return true;
 			}
@@ -168,46 +250,62 @@ public class AvlTree implements Iterable<Integer>{
 	 * 
 	 */
 	public boolean delete(int toDelete){
-		AvlNode successor;
 		AvlNode nodeToRemove = findNode(toDelete, root);
 		if(nodeToRemove == null){
 			return false;
 			
 		}else{
-			if(nodeToRemove.getLeftChild() != null && nodeToRemove.getRightChild() != null){
-				try{
-				successor = getSuccessor(nodeToRemove); //If the node has a right child he has 
-														// to have a successor
-				}
-				catch (IllegalArgumentException exeption){
-					System.out.println("ERROR!! Illegal Argument Received");
-					successor = null;
-				}
-				nodeToRemove.setKey(successor.getKey());
-				try{
-				removeNode(successor);
-				}
-				catch (IllegalArgumentException exeption){
-					System.out.println("ERROR!! Illegal Argument Received");
-					return false;
-				}
-			}else{
-				try{
-				removeNode(nodeToRemove);
-				}
-				catch (IllegalArgumentException exeption){
-					System.out.println("ERROR!! Illegal Argument Received");
-					return false;
-				}
-				
-			}
-			size --;
-			return true;
-			
+			return deleteNode(nodeToRemove);
 		}
 		
 	}
 	
+	/**
+	 * @return The smallest key in the tree.
+	 * @throws NoSuchElementException If the tree is empty.
+	 */
+	public int first(){
+		if(minNode == null){
+			throw new NoSuchElementException();
+		}
+		return minNode.getKey();
+	}
+	
+	/**
+	 * @return The largest key in the tree.
+	 * @throws NoSuchElementException If the tree is empty.
+	 */
+	public int last(){
+		if(maxNode == null){
+			throw new NoSuchElementException();
+		}
+		return maxNode.getKey();
+	}
+	
+	/**
+	 * Removes the smallest key from the tree. The node is removed directly, without
+	 * searching for its key from the root.
+	 * @return The removed key.
+	 * @throws NoSuchElementException If the tree is empty.
+	 */
+	public int pollFirst(){
+		int firstKey = first();
+		deleteNode(minNode);
+		return firstKey;
+	}
+	
+	/**
+	 * Removes the largest key from the tree. The node is removed directly, without
+	 * searching for its key from the root.
+	 * @return The removed key.
+	 * @throws NoSuchElementException If the tree is empty.
+	 */
+	public int pollLast(){
+		int lastKey = last();
+		deleteNode(maxNode);
+		return lastKey;
+	}
+	
 	/**
 	 * Check whether the tree contains the given input value.
 	 * @param searchVal The value to search for.
@@ -215,6 +313,29 @@ public class AvlTree implements Iterable<Integer>{
 	 * given value if it was found in the tree, -1 otherwise.
 	 */
 	public int contains(int searchVal){
+		int depth;
+		
+		if(hotKeyCache != null){
+			depth = hotKeyCache.lookup(searchVal);
+			if(depth != HotKeyCache.CACHE_MISS){
+				return depth;
+			}
+		}
+		
+		depth = findDepth(root, searchVal);
+		if(hotKeyCache != null){
+			hotKeyCache.put(searchVal, depth);
+		}
+		return depth;
+		
+	}
+	
+	/*
+	 * Searches the subtree of the given root for the given value. Returns the depth of the node
+	 * holding it (0 for the given root), or -1 if it isn't there. Only the child references are
+	 * followed, so it works on the parentless nodes of an AvlTreeSnapshot as well.
+	 */
+	static int findDepth(AvlNode root, int searchVal){
 		AvlNode currentNode = root;
 		int depthCounter = DEPTH_OF_ROOT;
 		
@@ -230,9 +351,135 @@ public class AvlTree implements Iterable<Integer>{
 			}
 		}
 		return NODE_NOT_FOUND;
+	}
+	
+	/**
+	 * Puts a fixed size cache of recent lookup results in front of contains(), for workloads in
+	 * which a small number of keys is searched for most of the time. The cache admits a key only
+	 * if it is searched for more often than the key it would replace. add() and delete() remove
+	 * from the cache exactly the keys whose presence or depth they change, including the keys
+	 * moved by rotations, so contains() always returns the same result as without the cache.
+	 * Note that with the cache enabled, contains() changes the cache, so it may not be called
+	 * at the same time as any other method, even under a read lock.
+	 * Any previously enabled cache and its counters are discarded.
+	 * @param capacity The number of keys to cache, between 1 and 2^24. It is rounded up to a power
+	 * of two, and to at least 8.
+	 * @throws IllegalArgumentException If the capacity isn't positive, or is larger than 2^24.
+	 */
+	public void enableHotKeyCache(int capacity){
+		if(capacity <= 0 || capacity > HotKeyCache.MAX_CAPACITY){
+			throw new IllegalArgumentException();
+		}
+		hotKeyCache = new HotKeyCache(capacity);
+	}
+	
+	/**
+	 * Removes the cache of lookup results, if there is one.
+	 */
+	public void disableHotKeyCache(){
+		hotKeyCache = null;
+	}
+	
+	/**
+	 * @return The number of contains() calls that were answered by the hot key cache, or 0 if
+	 * the cache isn't enabled.
+	 */
+	public long getCacheHits(){
+		return (hotKeyCache != null) ? hotKeyCache.getHits() : 0;
+	}
+	
+	/**
+	 * @return The number of contains() calls that had to search the tree because the key wasn't
+	 * in the hot key cache, or 0 if the cache isn't enabled.
+	 */
+	public long getCacheMisses(){
+		return (hotKeyCache != null) ? hotKeyCache.getMisses() : 0;
+	}
+	
+	/**
+	 * Checks for every one of the given values whether the tree contains it, with the same result
+	 * contains() would give. Instead of searching for the values one after the other, groups of
+	 * lookups go down the tree together, a level at a time. The lookups in a group are independent
+	 * of each other, so the processor can wait for the memory of several nodes at once, instead of
+	 * waiting for the nodes of a single path one by one.
+	 * @param searchVals The values to search for.
+	 * @param depthsOut An array, at least as long as searchVals, that receives the depth of every
+	 * value (0 for the root) if it was found in the tree, or -1 otherwise.
+	 * @return The number of values that were found in the tree.
+	 * @throws IllegalArgumentException If one of the arrays is null, or depthsOut is too short.
+	 */
+	public int containsAll(int[] searchVals, int[] depthsOut){
+		AvlNode[] currentNodes = new AvlNode[LOOKUP_GROUP_SIZE];
+		int[] activeLookups = new int[LOOKUP_GROUP_SIZE]; // Indices of the group's unfinished lookups.
+		int foundCounter = 0;
+		
+		if(searchVals == null || depthsOut == null || depthsOut.length < searchVals.length){
+			throw new IllegalArgumentException();
+		}
 		
+		for(int groupStart=0;groupStart<searchVals.length;groupStart+=LOOKUP_GROUP_SIZE){
+			int activeCounter = Math.min(LOOKUP_GROUP_SIZE, searchVals.length - groupStart);
+			int depthCounter = DEPTH_OF_ROOT;
+			
+			for(int i=0;i<activeCounter;i++){
+				currentNodes[i] = root;
+				activeLookups[i] = groupStart + i;
+			}
+			
+			while(activeCounter > 0){
+				// A finished lookup is replaced by the last active one, so the active lookups
+				// always occupy the beginning of the arrays.
+				for(int i=0;i<activeCounter;){
+					AvlNode currentNode = currentNodes[i];
+					int searchVal = searchVals[activeLookups[i]];
+					
+					if(currentNode == null || currentNode.getKey() == searchVal){
+						if(currentNode == null){
+							depthsOut[activeLookups[i]] = NODE_NOT_FOUND;
+						}else{
+							depthsOut[activeLookups[i]] = depthCounter;
+							foundCounter ++;
+						}
+						activeCounter --;
+						currentNodes[i] = currentNodes[activeCounter];
+						activeLookups[i] = activeLookups[activeCounter];
+					}else{
+						if(currentNode.getKey() < searchVal){
+							currentNodes[i] = currentNode.getRightChild();
+						}else{
+							currentNodes[i] = currentNode.getLeftChild();
+						}
+						i ++;
+					}
+				}
+				depthCounter ++;
+			}
+		}
+		return foundCounter;
 	}
 	
+	/**
+	 * Finds the keys that were added and removed in the given tree, relative to this tree.
+	 * Both trees are walked in order side by side, and subtrees that the two trees share
+	 * are skipped as a whole. Neither tree is changed.
+	 * @param other The newer version of the tree. A null tree is treated as an empty one.
+	 * @return The keys that appear only in the given tree (added), and the keys that
+	 * appear only in this tree (removed), each in an ascending order.
+	 */
+	public AvlTreeDiff diff(AvlTree other){
+		return AvlTreeDiff.between(root, (other != null) ? other.root : null);
+	}
+
+	/**
+	 * Creates an immutable, compressed copy of the tree, which takes a few bytes per key instead
+	 * of a whole node. The copy can be searched and iterated, and converted back into an AvlTree
+	 * in linear time. This tree is not changed.
+	 * @return A compressed snapshot of the keys of the tree.
+	 */
+	public CompactAvlSet compact(){
+		return new CompactAvlSet(intIterator(), size);
+	}
+
 	/**
 	 * @return The Number of nodes in the tree
 	 */
@@ -241,6 +488,14 @@ public class AvlTree implements Iterable<Integer>{
 		
 	}
 	
+	/*
+	 * Returns the number of single rotations the tree made since it was created (a double rotation
+	 * counts as two). Used to measure how much rebalancing the relaxed mode saves.
+	 */
+	long getRotationCount(){
+		return rotationCount;
+	}
+	
 	/**
 	 * @return An iterator on the Avl Tree. The returned iterator iterates
 	 * over the tree nodes in an ascending order, and does not implement
@@ -251,6 +506,14 @@ public class AvlTree implements Iterable<Integer>{
 	public Iterator<Integer> iterator() {
 		return new TreeIterator();
 	}
+
+	/**
+	 * @return An iterator on the Avl Tree that returns the keys in an ascending order as primitive
+	 * ints through nextInt(), without boxing them. Like iterator(), it does not implement remove().
+	 */
+	public PrimitiveIterator.OfInt intIterator() {
+		return new TreeIterator();
+	}
 	
 
 	
@@ -291,6 +554,96 @@ public class AvlTree implements Iterable<Integer>{
 	}
 	
 	
+	/*
+	 * Removes the given node from the tree. If the node has one child, he is replaced with his
+	 * child. If he has no children, he is simply deleted. If he has two children, he takes his
+	 * successor's key, and the successor (who has 0 or 1 kids) is removed instead.
+	 * Before the removal, the cached minimal and maximal nodes are moved to their neighbours
+	 * if they are the ones being removed. Returns true if the node was removed.
+	 */
+	private boolean deleteNode(AvlNode nodeToRemove){
+		AvlNode successor;
+		
+		invalidateCachedKey(nodeToRemove.getKey());
+		try{
+			if(nodeToRemove == minNode){
+				minNode = getSuccessor(minNode); // The minimum has no left child, so it is removed
+			}									 // directly and its successor stays in place.
+			if(nodeToRemove == maxNode){
+				maxNode = getPredecessor(maxNode);
+			}
+		}
+		catch (IllegalArgumentException exeption){
+			System.out.println("ERROR!! Illegal Argument Received");
+			return false;
+		}
+		
+		if(nodeToRemove.getLeftChild() != null && nodeToRemove.getRightChild() != null){
+			try{
+			successor = getSuccessor(nodeToRemove); //If the node has a right child he has 
+													// to have a successor
+			}
+			catch (IllegalArgumentException exeption){
+				System.out.println("ERROR!! Illegal Argument Received");
+				successor = null;
+			}
+			nodeToRemove.setKey(successor.getKey());
+			if(successor == maxNode){ // The maximal key now lives in the node that took it.
+				maxNode = nodeToRemove;
+			}
+			try{
+			removeNode(successor);
+			}
+			catch (IllegalArgumentException exeption){
+				System.out.println("ERROR!! Illegal Argument Received");
+				return false;
+			}
+		}else{
+			try{
+			removeNode(nodeToRemove);
+			}
+			catch (IllegalArgumentException exeption){
+				System.out.println("ERROR!! Illegal Argument Received");
+				return false;
+			}
+			
+		}
+		size --;
+		return true;
+	}
+	
+	
+	/*
+	 * Returns the predecessor of the given node. This mirrors getSuccessor(): If the node has a left
+	 * child, the predecessor is the maximum of the left child's sub tree. Otherwise, it is the first
+	 * ancestor whose right sub tree holds the node. Returns null if the node is the minimum node.
+	 * Throws an exception if the given node is null. This Should never happen.
+	 */
+	private AvlNode getPredecessor(AvlNode node) throws IllegalArgumentException{
+		AvlNode currentNode;
+		AvlNode parent;
+		
+		if (node == null){
+			throw new IllegalArgumentException();
+		}
+		
+		if(node.getLeftChild() != null){
+			currentNode = node.getLeftChild();
+			while(currentNode.getRightChild() != null){
+				currentNode = currentNode.getRightChild();
+			}
+			return currentNode;
+		}else{
+			parent = node.getParent();
+			while(parent != null && parent.getLeftChild() == node){
+				node = parent;
+				parent = parent.getParent();
+			}
+			return parent;
+		}
+	}
+	
+	
 	/*
 	 * Returns the node that has the given key. If the node doesn't exist, returns null.
 	 * Note that the method will return null if the given currentNode is empty (in the case
@@ -362,10 +715,13 @@ public class AvlTree implements Iterable<Integer>{
 	 * if it is unbalanced.  When it reaches the root, if there is a new root it changes the 
 	 * variable accordingly. If no rotation occurred, updates the current node's height. If a 
 	 * rotation did occur, the node's height is already taken care of in the rotation algorithm.
+	 * The recursion stops early once the height of the current subtree ends up the same as it was
+	 * before the change, since the heights and balance of all the nodes above it stay the same.
 	 */
 	private void adjustTree (AvlNode currentNode) throws IllegalArgumentException{
 		AvlNode originalParent;
 		AvlNode newSubtreeRoot;
+		int originalHeight;
 		
 		
 		//The recursion keeps going until it reaches the root's parent, which is null.
@@ -374,6 +730,8 @@ public class AvlTree implements Iterable<Integer>{
 			// Since the current node's parent might change, saving it so the recursion can keep 
 			// going up the tree.
 			originalParent = currentNode.getParent();
+			// The recursion goes bottom up, so the node's height wasn't updated yet.
+			originalHeight = currentNode.getHeight();
 			
 			newSubtreeRoot =  rotateNode(currentNode);
 			if(newSubtreeRoot == currentNode){ //If no rotation happened
@@ -384,7 +742,9 @@ public class AvlTree implements Iterable<Integer>{
 				root = newSubtreeRoot;
 			}
 			
-			adjustTree(originalParent);
+			if(newSubtreeRoot.getHeight() != originalHeight){
+				adjustTree(originalParent);
+			}
 		}
 			
 	}
@@ -408,7 +768,7 @@ public class AvlTree implements Iterable<Integer>{
 		// Note: if both children are null, they both have a height of -1. Since -1 - (-1) = 0,
 		// There will be no rotation in this case
 		
-		if (Math.abs(rightChildHeight - leftChildHeight) >  MAXIMAL_NODE_DIFFERENCE){		
+		if (Math.abs(rightChildHeight - leftChildHeight) >  maxHeightDifference){		
 			
 			// Note: If the right/left child is higher then his sibling, then it must have children.
 			// Therefore when the right/left child is respectively called, we can be sure it isn't null.
@@ -532,6 +892,16 @@ public class AvlTree implements Iterable<Integer>{
 		if(leftChild == null){
 			throw new IllegalArgumentException();
 		}
+		rotationCount ++;
+		
+		// The left child and his left subtree move one level up, and the node and his right subtree
+		// move one level down. Only the left child's right subtree stays at the same depth.
+		if(hotKeyCache != null){
+			hotKeyCache.invalidate(leftChild.getKey());
+			hotKeyCache.invalidate(node.getKey());
+			invalidateCachedSubtree(leftChild.getLeftChild());
+			invalidateCachedSubtree(node.getRightChild());
+		}
 		
 		leftChild.setParent(parent);
 		
@@ -588,7 +958,16 @@ public class AvlTree implements Iterable<Integer>{
 		if (rightChild == null){
 			throw new IllegalArgumentException();
 		}
+		rotationCount ++;
 		
+		// The node and his left subtree move one level down, and the right child and his right
+		// subtree move one level up. Only the right child's left subtree stays at the same depth.
+		if(hotKeyCache != null){
+			hotKeyCache.invalidate(node.getKey());
+			hotKeyCache.invalidate(rightChild.getKey());
+			invalidateCachedSubtree(node.getLeftChild());
+			invalidateCachedSubtree(rightChild.getRightChild());
+		}
 		
 		rightChild.setParent(parent);
 		
@@ -630,7 +1009,7 @@ public class AvlTree implements Iterable<Integer>{
 	/*
 	 * Returns the node's height if it exists, and returns -1 if the node is null.
 	 */
-	private int getNodeHeight(AvlNode node){
+	static int getNodeHeight(AvlNode node){
 		if(node != null){
 			return node.getHeight();
 		}else{
@@ -670,6 +1049,15 @@ public class AvlTree implements Iterable<Integer>{
 			throw new IllegalArgumentException();
 		}
 		
+		// The node's key is either deleted, or (for a successor) moved up to another node. The
+		// subtree of the node's child moves one level up.
+		invalidateCachedKey(node.getKey());
+		if(node.getLeftChild() != null){
+			invalidateCachedSubtree(node.getLeftChild());
+		}else if(node.getRightChild() != null){
+			invalidateCachedSubtree(node.getRightChild());
+		}
+		
 		if(node.getLeftChild() != null){
 			replacementNode = node.getLeftChild();
 			replacementNode.setParent(node.getParent());
@@ -699,6 +1087,7 @@ public class AvlTree implements Iterable<Integer>{
 	
 	/*
 	 * Returns the minimal node in the key by going all the way down left from the root.
+	 * Used to initialize minNode when a whole tree is built at once.
 	 */
 	private AvlNode getMin(){
 		AvlNode currentNode = root;
@@ -713,15 +1102,96 @@ public class AvlTree implements Iterable<Integer>{
 		return currentNode;
 	}
 	
+	/*
+	 * Returns the minimal node in the subtree of the given node, by going all the way down left.
+	 */
+	private AvlNode getSubtreeMin(AvlNode node){
+		while(node.getLeftChild() != null){
+			node = node.getLeftChild();
+		}
+		return node;
+	}
+	
+	/*
+	 * Returns the maximal node in the subtree of the given node, by going all the way down right.
+	 */
+	private AvlNode getSubtreeMax(AvlNode node){
+		while(node.getRightChild() != null){
+			node = node.getRightChild();
+		}
+		return node;
+	}
+	
+	/*
+	 * Removes the given key from the hot key cache, if the cache is enabled.
+	 */
+	private void invalidateCachedKey(int key){
+		if(hotKeyCache != null){
+			hotKeyCache.invalidate(key);
+		}
+	}
+	
+	/*
+	 * Removes all the keys of the given subtree (which may be null) from the hot key cache, if the
+	 * cache is enabled. The nodes of the subtree are invalidated one by one, until as many were
+	 * visited as the cache has slots. Only then is the subtree large enough for a scan of the whole
+	 * cache to be cheaper - the keys of a subtree are exactly the keys between its minimum and its
+	 * maximum. Either way the work is bounded by the smaller of the two sizes (times two).
+	 */
+	private void invalidateCachedSubtree(AvlNode subtreeRoot){
+		if(hotKeyCache != null && subtreeRoot != null){
+			if(invalidateCachedNodes(subtreeRoot, hotKeyCache.getCapacity()) < 0){
+				hotKeyCache.invalidateRange(getSubtreeMin(subtreeRoot).getKey(),
+						getSubtreeMax(subtreeRoot).getKey());
+			}
+		}
+	}
+	
+	/*
+	 * Invalidates the keys of the given subtree, visiting at most the given number of nodes.
+	 * Returns the number of visits left, or -1 if the subtree has more nodes than that.
+	 */
+	private int invalidateCachedNodes(AvlNode node, int visitsLeft){
+		if(node == null){
+			return visitsLeft;
+		}
+		if(visitsLeft == 0){
+			return -1;
+		}
+		hotKeyCache.invalidate(node.getKey());
+		visitsLeft = invalidateCachedNodes(node.getLeftChild(), visitsLeft - 1);
+		if(visitsLeft < 0){
+			return -1;
+		}
+		return invalidateCachedNodes(node.getRightChild(), visitsLeft);
+	}
+	
+	/*
+	 * Returns the maximal node in the tree by going all the way down right from the root.
+	 * Used to initialize maxNode when a whole tree is built at once.
+	 */
+	private AvlNode getMax(){
+		AvlNode currentNode = root;
+		if(currentNode == null){
+			return null;
+		}
+		
+		while(currentNode.getRightChild() != null){
+			currentNode = currentNode.getRightChild();
+		}
+		return currentNode;
+	}
+	
 
 	/**
 	 * Iterates over an AvlTree, from the smallest key to the largest. This is implemented
 	 * by staring with the minimal node and finding it's successor each iteration.
-	 * For each iteration, the key of the node is returned.
+	 * For each iteration, the key of the node is returned. The keys can be received either boxed 
+	 * through next(), or as primitive ints through nextInt().
 	 * @author alonav11
 	 *
 	 */
-	private class TreeIterator implements Iterator<Integer>{
+	private class TreeIterator implements PrimitiveIterator.OfInt{
 		
 		private AvlNode nextNode;
 		int currentNodeKey;
@@ -732,7 +1202,7 @@ public class AvlTree implements Iterable<Integer>{
 		 * @param tree
 		 */
 		public TreeIterator(){
-			nextNode = getMin();
+			nextNode = minNode;
 			
 			
 		}
@@ -743,6 +1213,13 @@ public class AvlTree implements Iterable<Integer>{
 		}
 
 		public Integer next() {
+			return nextInt();
+		}
+
+		public int nextInt() {
+			if(nextNode == null){
+				throw new NoSuchElementException();
+			}
 			currentNodeKey = nextNode.getKey();
 			try{
 				nextNode = getSuccessor(nextNode);
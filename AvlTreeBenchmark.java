@@ -0,0 +1,457 @@
+package oop.ex4.data_structures;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A small command line harness for the performance claims made about the trees in this package.
+ * Every benchmark builds its own data from a fixed random seed, repeats its measurement a few
+ * times (the first rounds warm up the JIT), and prints one line per round.
+ * Usage: java oop.ex4.data_structures.AvlTreeBenchmark &lt;benchmark&gt; [size] [operations]
+ * The available benchmarks are listed when it is run without arguments.
+ */
+public final class AvlTreeBenchmark {
+
+	private static final int DEFAULT_SIZE = 1 << 20;
+	private static final int DEFAULT_OPERATIONS = 1 << 20;
+	private static final int ROUNDS = 5;
+	private static final long SEED = 42;
+	private static final double NANOS_PER_MILLI = 1e6;
+	private static final double NANOS_PER_MICRO = 1e3;
+	private static final int MAX_BENCHMARKED_DIFFERENCE = 4;
+	/* Only every this many keys is searched for when measuring the average depth. */
+	private static final int DEPTH_SAMPLING_STRIDE = 4;
+	/* The number of writes between the two snapshots that are compared by snapshot-diff. */
+	private static final int DIFF_WRITES = 64;
+	/* The skew of the searched keys in hot-cache - the i-th most popular key is searched for with a
+	 * probability proportional to 1 / i^ZIPF_EXPONENT. */
+	private static final double ZIPF_EXPONENT = 1.1;
+	/* The cache capacities compared by hot-cache. 0 means the cache is disabled. */
+	private static final int[] CACHE_CAPACITIES = {0, 1 << 12, 1 << 16};
+	/* The thread counts compared by sharded-scaling. */
+	private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+	/* In sharded-scaling, a quarter of the operations are adds, a quarter deletes, and half lookups. */
+	private static final int OPERATION_KINDS = 4;
+	private static final int ADD_KIND = 0;
+	private static final int DELETE_KIND = 1;
+
+	private static final String USAGE = "Usage: AvlTreeBenchmark <benchmark> [size] [operations]\n"
+			+ "Benchmarks:\n"
+			+ "  contains-batch  contains() in a loop against containsAll() on random probes\n"
+			+ "  relaxed-churn   rotations per write, lookup depth and throughput of delete+add\n"
+			+ "                  churn, for height difference bounds 1 (strict AVL) to "
+			+ MAX_BENCHMARKED_DIFFERENCE + "\n"
+			+ "  snapshot-diff   diff() of two snapshots " + DIFF_WRITES + " writes apart, against two\n"
+			+ "                  snapshots with the same keys that share no nodes (ignores operations)\n"
+			+ "  hot-cache       contains() on Zipf distributed keys, and delete+add churn, with the\n"
+			+ "                  hot key cache disabled and with 4K and 64K entries\n"
+			+ "  sharded-scaling random adds, deletes and lookups from 1 to 8 threads, on a\n"
+			+ "                  ShardedAvlTree against an AvlTree behind a single read-write lock\n"
+			+ "  buffered-writes random adds into a BufferedAvlTree, until they are buffered and until\n"
+			+ "                  they are merged, against synchronized adds into a plain AvlTree\n";
+
+
+	/*
+	 * The class only offers a main method, so it is never instantiated.
+	 */
+	private AvlTreeBenchmark(){
+	}
+
+
+	/**
+	 * Runs the benchmark named by the first argument.
+	 * @param args The benchmark name, and optionally the tree size and the number of operations.
+	 */
+	public static void main(String[] args) throws InterruptedException{
+		int size;
+		int operations;
+
+		if(args.length == 0){
+			System.out.print(USAGE);
+			return;
+		}
+		size = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SIZE;
+		operations = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_OPERATIONS;
+
+		switch(args[0]){
+		case "contains-batch":	benchmarkContainsBatch(size, operations);
+								break;
+
+		case "relaxed-churn":	benchmarkRelaxedChurn(size, operations);
+								break;
+
+		case "snapshot-diff":	benchmarkSnapshotDiff(size);
+								break;
+
+		case "hot-cache":		benchmarkHotCache(size, operations);
+								break;
+
+		case "sharded-scaling":	benchmarkShardedScaling(size, operations);
+								break;
+
+		case "buffered-writes":	benchmarkBufferedWrites(size, operations);
+								break;
+
+		default:				System.out.print(USAGE);
+		}
+	}
+
+
+	/*
+	 * Compares searching for random values one after the other with contains(), to searching for
+	 * them in groups with containsAll(). About half of the values are in the tree.
+	 */
+	private static void benchmarkContainsBatch(int size, int operations){
+		Random random = new Random(SEED);
+		AvlTree tree = randomTree(random, size, 2 * size);
+		int[] searchVals = randomValues(random, operations, 2 * size);
+		int[] depths = new int[operations];
+
+		for(int round=0;round<ROUNDS;round++){
+			long checksum = 0;
+			long start = System.nanoTime();
+			for(int searchVal:searchVals){
+				checksum += tree.contains(searchVal);
+			}
+			long middle = System.nanoTime();
+			tree.containsAll(searchVals, depths);
+			long end = System.nanoTime();
+
+			System.out.printf("contains %.0f ms, containsAll %.0f ms, speedup %.2fx (checksum %d)%n",
+					(middle - start) / NANOS_PER_MILLI, (end - middle) / NANOS_PER_MILLI,
+					(middle - start) / (double) (end - middle), checksum);
+		}
+	}
+
+
+	/*
+	 * For every height difference bound, replaces random keys of a tree (a delete followed by an
+	 * add), and reports the rotations made per write, the average depth of the keys afterwards,
+	 * and the throughput of the writes. All the bounds get the same keys and the same replacement
+	 * sequence, so the rotations and the depths are exact and repeat from run to run. The
+	 * throughput is noisy, since all the bounds share one JVM - its median over the rounds is
+	 * printed at the end.
+	 */
+	private static void benchmarkRelaxedChurn(int size, int operations){
+		double[][] rates = new double[MAX_BENCHMARKED_DIFFERENCE + 1][ROUNDS];
+		double[] rotationsPerWrite = new double[MAX_BENCHMARKED_DIFFERENCE + 1];
+		double[] averageDepths = new double[MAX_BENCHMARKED_DIFFERENCE + 1];
+
+		for(int round=0;round<ROUNDS;round++){
+			for(int bound=1;bound<=MAX_BENCHMARKED_DIFFERENCE;bound++){
+				Random random = new Random(SEED);
+				AvlTree tree = new AvlTree(bound);
+				int[] keys = new int[size];
+				int[] newKeys = randomValues(random, operations, Integer.MAX_VALUE);
+				int[] victims = new int[operations];
+				long depthSum = 0;
+				int found = 0;
+
+				for(int i=0;i<size;i++){
+					keys[i] = random.nextInt(Integer.MAX_VALUE);
+					tree.add(keys[i]);
+				}
+				for(int i=0;i<operations;i++){
+					victims[i] = random.nextInt(size);
+				}
+
+				long rotationsBefore = tree.getRotationCount();
+				long start = System.nanoTime();
+				for(int i=0;i<operations;i++){
+					tree.delete(keys[victims[i]]);
+					keys[victims[i]] = newKeys[i];
+					tree.add(newKeys[i]);
+				}
+				long end = System.nanoTime();
+
+				for(int i=0;i<size;i+=DEPTH_SAMPLING_STRIDE){
+					int depth = tree.contains(keys[i]);
+					if(depth >= 0){
+						depthSum += depth;
+						found ++;
+					}
+				}
+				rates[bound][round] = 2.0 * operations / ((end - start) / NANOS_PER_MICRO);
+				rotationsPerWrite[bound] = (tree.getRotationCount() - rotationsBefore)
+						/ (2.0 * operations);
+				averageDepths[bound] = depthSum / (double) found;
+				System.out.printf("round %d, bound %d: %.3f rotations/write, average depth %.2f, "
+						+ "%.2f M writes/s%n", round, bound, rotationsPerWrite[bound],
+						averageDepths[bound], rates[bound][round]);
+			}
+		}
+
+		for(int bound=1;bound<=MAX_BENCHMARKED_DIFFERENCE;bound++){
+			Arrays.sort(rates[bound]);
+			System.out.printf("bound %d: %.3f rotations/write, average depth %.2f, median %.2f M "
+					+ "writes/s%n", bound, rotationsPerWrite[bound], averageDepths[bound],
+					rates[bound][ROUNDS / 2]);
+		}
+	}
+
+
+	/*
+	 * Compares diffing two versions of a SnapshotAvlTree that are a few writes apart, which share
+	 * almost all of their subtrees, to diffing the older version against a separately built tree
+	 * with the same keys as the newer one, which shares none. Both diffs find the same keys.
+	 */
+	private static void benchmarkSnapshotDiff(int size){
+		Random random = new Random(SEED);
+		SnapshotAvlTree tree = new SnapshotAvlTree();
+		SnapshotAvlTree copy = new SnapshotAvlTree();
+		AvlTreeSnapshot older;
+		AvlTreeSnapshot newer;
+		AvlTreeSnapshot unshared;
+
+		while(tree.size() < size){
+			tree.add(random.nextInt(2 * size));
+		}
+		older = tree.snapshot();
+		for(int i=0;i<DIFF_WRITES;i++){
+			if(random.nextBoolean()){
+				tree.add(random.nextInt(2 * size));
+			}else{
+				tree.delete(random.nextInt(2 * size));
+			}
+		}
+		newer = tree.snapshot();
+		for(int key:newer){
+			copy.add(key);
+		}
+		unshared = copy.snapshot();
+
+		for(int round=0;round<ROUNDS;round++){
+			long start = System.nanoTime();
+			AvlTreeDiff sharedDiff = older.diff(newer);
+			long middle = System.nanoTime();
+			AvlTreeDiff unsharedDiff = older.diff(unshared);
+			long end = System.nanoTime();
+
+			System.out.printf("shared %.1f us, unshared %.1f us (%d added, %d removed, equal %b)%n",
+					(middle - start) / NANOS_PER_MICRO, (end - middle) / NANOS_PER_MICRO,
+					sharedDiff.addedCount(), sharedDiff.removedCount(),
+					sharedDiff.addedCount() == unsharedDiff.addedCount()
+					&& sharedDiff.removedCount() == unsharedDiff.removedCount());
+		}
+	}
+
+
+	/*
+	 * For every cache capacity, measures contains() on keys that are searched for with a Zipf
+	 * distribution, and then the cost of writes (a delete of a random key followed by an add of a
+	 * new one), which have to invalidate the cache. All the capacities get the same sequences.
+	 */
+	private static void benchmarkHotCache(int size, int operations){
+		Random random = new Random(SEED);
+		int[] keys = randomValues(random, size, Integer.MAX_VALUE);
+		int[] searchVals = new int[operations];
+		int[] victims = new int[operations];
+		int[] newKeys = randomValues(random, operations, Integer.MAX_VALUE);
+		double[] popularity = new double[size]; // The cumulative popularity of the keys.
+		double total = 0;
+
+		for(int i=0;i<size;i++){
+			total += 1 / Math.pow(i + 1, ZIPF_EXPONENT);
+			popularity[i] = total;
+		}
+		for(int i=0;i<operations;i++){
+			int rank = Arrays.binarySearch(popularity, random.nextDouble() * total);
+			searchVals[i] = keys[Math.min((rank >= 0) ? rank : -rank - 1, size - 1)];
+			victims[i] = random.nextInt(size);
+		}
+
+		for(int round=0;round<ROUNDS;round++){
+			for(int capacity:CACHE_CAPACITIES){
+				int[] currentKeys = keys.clone();
+				AvlTree tree = new AvlTree(currentKeys);
+				long checksum = 0;
+
+				if(capacity > 0){
+					tree.enableHotKeyCache(capacity);
+				}
+				long start = System.nanoTime();
+				for(int searchVal:searchVals){
+					checksum += tree.contains(searchVal);
+				}
+				long middle = System.nanoTime();
+				for(int i=0;i<operations;i++){
+					tree.delete(currentKeys[victims[i]]);
+					currentKeys[victims[i]] = newKeys[i];
+					tree.add(newKeys[i]);
+				}
+				long end = System.nanoTime();
+
+				System.out.printf("round %d, capacity %d: reads %.3f us/op (hit ratio %.2f), "
+						+ "writes %.3f us/op (checksum %d)%n", round, capacity,
+						(middle - start) / NANOS_PER_MICRO / operations,
+						tree.getCacheHits() / (double) Math.max(operations, 1),
+						(end - middle) / NANOS_PER_MICRO / (2.0 * operations), checksum);
+			}
+		}
+	}
+
+
+	/*
+	 * For every thread count, splits the same mix of random operations among the threads, and runs
+	 * it on a ShardedAvlTree and on a plain AvlTree that all the threads share through one
+	 * read-write lock. Both start with the same random keys.
+	 */
+	private static void benchmarkShardedScaling(int size, int operations) throws InterruptedException{
+		Random random = new Random(SEED);
+		int[] initialKeys = randomValues(random, size, 2 * size);
+		int[] keys = randomValues(random, operations, 2 * size);
+
+		for(int round=0;round<ROUNDS;round++){
+			for(int threadCount:THREAD_COUNTS){
+				final ShardedAvlTree sharded = new ShardedAvlTree();
+				final AvlTree single = new AvlTree(initialKeys);
+				final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+				sharded.addAll(initialKeys);
+				double shardedRate = runConcurrently(threadCount, keys, new BenchmarkedSet(){
+					public void apply(int kind, int key){
+						if(kind == ADD_KIND){
+							sharded.add(key);
+						}else if(kind == DELETE_KIND){
+							sharded.delete(key);
+						}else{
+							sharded.contains(key);
+						}
+					}
+				});
+				double singleRate = runConcurrently(threadCount, keys, new BenchmarkedSet(){
+					public void apply(int kind, int key){
+						if(kind != ADD_KIND && kind != DELETE_KIND){
+							lock.readLock().lock();
+							try{
+								single.contains(key);
+							}finally{
+								lock.readLock().unlock();
+							}
+							return;
+						}
+						lock.writeLock().lock();
+						try{
+							if(kind == ADD_KIND){
+								single.add(key);
+							}else{
+								single.delete(key);
+							}
+						}finally{
+							lock.writeLock().unlock();
+						}
+					}
+				});
+
+				System.out.printf("round %d, %d threads: sharded %.2f M ops/s, single lock %.2f M ops/s "
+						+ "(%d processors)%n", round, threadCount, shardedRate, singleRate,
+						Runtime.getRuntime().availableProcessors());
+			}
+		}
+	}
+
+	/*
+	 * Adds random keys to a set that already holds the given number of keys - once into a
+	 * BufferedAvlTree, and once into a plain AvlTree with every add synchronized on the tree. For the
+	 * buffered set, both the time until the last add() returned and the time until close() merged
+	 * all the buffered writes into its main tree are reported.
+	 */
+	private static void benchmarkBufferedWrites(int size, int operations){
+		Random random = new Random(SEED);
+		int[] initialKeys = randomValues(random, size, Integer.MAX_VALUE);
+		int[] newKeys = randomValues(random, operations, Integer.MAX_VALUE);
+
+		for(int round=0;round<ROUNDS;round++){
+			AvlTree plain = new AvlTree(initialKeys);
+			BufferedAvlTree buffered = new BufferedAvlTree();
+
+			for(int key:initialKeys){
+				buffered.add(key);
+			}
+			buffered.flush();
+
+			long start = System.nanoTime();
+			for(int key:newKeys){
+				synchronized(plain){
+					plain.add(key);
+				}
+			}
+			long middle = System.nanoTime();
+			for(int key:newKeys){
+				buffered.add(key);
+			}
+			long buffering = System.nanoTime();
+			buffered.close();
+			long end = System.nanoTime();
+
+			System.out.printf("plain %.0f ms, buffered %.0f ms (%.0f ms until merged), "
+					+ "sizes %d/%d%n", (middle - start) / NANOS_PER_MILLI,
+					(buffering - middle) / NANOS_PER_MILLI, (end - middle) / NANOS_PER_MILLI,
+					plain.size(), buffered.size());
+		}
+	}
+
+	/*
+	 * Runs the operations on the given set from the given number of threads, each taking an equal
+	 * share of the keys, and returns the overall throughput in millions of operations per second.
+	 * The kind of every operation is derived from its position, so every run does the same mix.
+	 */
+	private static double runConcurrently(int threadCount, final int[] keys, final BenchmarkedSet set)
+			throws InterruptedException{
+		Thread[] threads = new Thread[threadCount];
+		long start;
+
+		for(int i=0;i<threadCount;i++){
+			final int from = (int) ((long) keys.length * i / threadCount);
+			final int to = (int) ((long) keys.length * (i + 1) / threadCount);
+			threads[i] = new Thread(() -> {
+				for(int j=from;j<to;j++){
+					set.apply(j % OPERATION_KINDS, keys[j]);
+				}
+			});
+		}
+		start = System.nanoTime();
+		for(Thread thread:threads){
+			thread.start();
+		}
+		for(Thread thread:threads){
+			thread.join();
+		}
+		return keys.length / ((System.nanoTime() - start) / NANOS_PER_MICRO);
+	}
+
+
+	/*
+	 * A set under benchmark, seen as a single operation - ADD_KIND, DELETE_KIND, or any other kind
+	 * for a lookup.
+	 */
+	private interface BenchmarkedSet{
+		void apply(int kind, int key);
+	}
+
+
+	/*
+	 * Returns a tree with the given number of random values from [0, bound).
+	 */
+	private static AvlTree randomTree(Random random, int size, int bound){
+		AvlTree tree = new AvlTree();
+		while(tree.size() < size){
+			tree.add(random.nextInt(bound));
+		}
+		return tree;
+	}
+
+	/*
+	 * Returns an array of the given number of random values from [0, bound).
+	 */
+	private static int[] randomValues(Random random, int count, int bound){
+		int[] values = new int[count];
+		for(int i=0;i<count;i++){
+			values[i] = random.nextInt(bound);
+		}
+		return values;
+	}
+
+}
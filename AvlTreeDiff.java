@@ -0,0 +1,261 @@
+package oop.ex4.data_structures;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+/**
+ * This class holds the difference between two versions of an AVL tree: the keys that were added
+ * to the older version, and the keys that were removed from it, each in an ascending order.
+ * The difference is found by walking both trees in order side by side. Subtrees are only expanded
+ * when needed, so when both trees reference the very same subtree (as versions that share their
+ * structure do), the whole subtree is skipped without visiting any of its nodes.
+ */
+public class AvlTreeDiff {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int[] addedKeys;
+	private final int[] removedKeys;
+
+
+	/*
+	 * Constructor. Keeps the given arrays as they are - they must not be changed afterwards.
+	 */
+	private AvlTreeDiff(int[] addedKeys, int[] removedKeys){
+		this.addedKeys = addedKeys;
+		this.removedKeys = removedKeys;
+	}
+
+
+	/**
+	 * @return An iterator over the keys that appear only in the newer version, in ascending order.
+	 */
+	public PrimitiveIterator.OfInt addedKeys(){
+		return Arrays.stream(addedKeys).iterator();
+	}
+
+	/**
+	 * @return An iterator over the keys that appear only in the older version, in ascending order.
+	 */
+	public PrimitiveIterator.OfInt removedKeys(){
+		return Arrays.stream(removedKeys).iterator();
+	}
+
+	/**
+	 * @return The number of keys that appear only in the newer version.
+	 */
+	public int addedCount(){
+		return addedKeys.length;
+	}
+
+	/**
+	 * @return The number of keys that appear only in the older version.
+	 */
+	public int removedCount(){
+		return removedKeys.length;
+	}
+
+	/**
+	 * @return true if both versions hold exactly the same keys.
+	 */
+	public boolean isEmpty(){
+		return addedKeys.length == 0 && removedKeys.length == 0;
+	}
+
+
+	/*
+	 * Computes the difference between the trees under the two given roots. Whenever both walks
+	 * reach an unexpanded subtree, the taller one is expanded first, so that a subtree shared by
+	 * both trees ends up at the top of both walks at the same time and is skipped as a whole.
+	 * A single key is compared to the smallest key of a subtree, and two single keys are compared
+	 * as in a regular merge.
+	 */
+	static AvlTreeDiff between(AvlNode olderRoot, AvlNode newerRoot){
+		InOrderWalk older = new InOrderWalk(olderRoot);
+		InOrderWalk newer = new InOrderWalk(newerRoot);
+		KeyBuffer added = new KeyBuffer();
+		KeyBuffer removed = new KeyBuffer();
+
+		while(!older.isEmpty() && !newer.isEmpty()){
+			if(older.isSubtreeOnTop() && newer.isSubtreeOnTop()){
+				if(older.top() == newer.top()){ // A shared subtree - nothing in it has changed.
+					older.pop();
+					newer.pop();
+				}else if(older.top().getHeight() > newer.top().getHeight()){
+					older.expandTop();
+				}else if(older.top().getHeight() < newer.top().getHeight()){
+					newer.expandTop();
+				}else{
+					older.expandTop();
+					newer.expandTop();
+				}
+			}else if(older.isSubtreeOnTop()){
+				// A key smaller than everything in the other walk's subtree can't be in it, and is
+				// handled without expanding the subtree, which might still turn out to be shared.
+				if(newer.top().getKey() < older.topMinKey()){
+					added.add(newer.top().getKey());
+					newer.pop();
+				}else{
+					older.expandTop();
+				}
+			}else if(newer.isSubtreeOnTop()){
+				if(older.top().getKey() < newer.topMinKey()){
+					removed.add(older.top().getKey());
+					older.pop();
+				}else{
+					newer.expandTop();
+				}
+			}else{
+				int olderKey = older.top().getKey();
+				int newerKey = newer.top().getKey();
+				if(olderKey == newerKey){
+					older.pop();
+					newer.pop();
+				}else if(olderKey < newerKey){
+					removed.add(olderKey);
+					older.pop();
+				}else{
+					added.add(newerKey);
+					newer.pop();
+				}
+			}
+		}
+
+		// Whatever is left in one of the walks doesn't appear in the other tree at all.
+		older.drainTo(removed);
+		newer.drainTo(added);
+		return new AvlTreeDiff(added.toArray(), removed.toArray());
+	}
+
+
+	/*
+	 * An in-order walk over a tree that is kept as a stack of pending entries. An entry is either
+	 * a single node whose key is next in order, or a whole subtree that wasn't expanded yet.
+	 * The smallest key of a subtree entry is found by walking down its left spine, and is saved
+	 * with the entry so that the walk isn't repeated.
+	 */
+	private static class InOrderWalk{
+
+		private AvlNode[] nodes;
+		private boolean[] isSubtree;
+		private boolean[] isMinKnown;
+		private int[] minKeys;
+		private int depth;
+
+		private InOrderWalk(AvlNode root){
+			nodes = new AvlNode[INITIAL_CAPACITY];
+			isSubtree = new boolean[INITIAL_CAPACITY];
+			isMinKnown = new boolean[INITIAL_CAPACITY];
+			minKeys = new int[INITIAL_CAPACITY];
+			depth = 0;
+			if(root != null){
+				push(root, true);
+			}
+		}
+
+		private boolean isEmpty(){
+			return depth == 0;
+		}
+
+		private AvlNode top(){
+			return nodes[depth - 1];
+		}
+
+		private boolean isSubtreeOnTop(){
+			return isSubtree[depth - 1];
+		}
+
+		/*
+		 * Returns the smallest key in the subtree on top of the stack.
+		 */
+		private int topMinKey(){
+			AvlNode currentNode;
+
+			if(!isMinKnown[depth - 1]){
+				currentNode = top();
+				while(currentNode.getLeftChild() != null){
+					currentNode = currentNode.getLeftChild();
+				}
+				minKeys[depth - 1] = currentNode.getKey();
+				isMinKnown[depth - 1] = true;
+			}
+			return minKeys[depth - 1];
+		}
+
+		private void pop(){
+			depth --;
+			nodes[depth] = null;
+		}
+
+		/*
+		 * Replaces the subtree on top of the stack with its right subtree, its root's key and its
+		 * left subtree, so that the left subtree is the next to be handled.
+		 */
+		private void expandTop(){
+			AvlNode subtreeRoot = top();
+			boolean wasMinKnown = isMinKnown[depth - 1];
+			int minKey = minKeys[depth - 1];
+
+			pop();
+			if(subtreeRoot.getRightChild() != null){
+				push(subtreeRoot.getRightChild(), true);
+			}
+			push(subtreeRoot, false);
+			if(subtreeRoot.getLeftChild() != null){
+				push(subtreeRoot.getLeftChild(), true);
+				// The left subtree holds the smallest key of the whole subtree.
+				isMinKnown[depth - 1] = wasMinKnown;
+				minKeys[depth - 1] = minKey;
+			}
+		}
+
+		/*
+		 * Empties the walk, adding all of its remaining keys in order to the given buffer.
+		 */
+		private void drainTo(KeyBuffer buffer){
+			while(!isEmpty()){
+				if(isSubtreeOnTop()){
+					expandTop();
+				}else{
+					buffer.add(top().getKey());
+					pop();
+				}
+			}
+		}
+
+		private void push(AvlNode node, boolean isWholeSubtree){
+			if(depth == nodes.length){
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				isSubtree = Arrays.copyOf(isSubtree, depth * 2);
+				isMinKnown = Arrays.copyOf(isMinKnown, depth * 2);
+				minKeys = Arrays.copyOf(minKeys, depth * 2);
+			}
+			nodes[depth] = node;
+			isSubtree[depth] = isWholeSubtree;
+			isMinKnown[depth] = false;
+			depth ++;
+		}
+	}
+
+
+	/*
+	 * A growable array of primitive keys.
+	 */
+	private static class KeyBuffer{
+
+		private int[] keys = new int[INITIAL_CAPACITY];
+		private int size = 0;
+
+		private void add(int key){
+			if(size == keys.length){
+				keys = Arrays.copyOf(keys, size * 2);
+			}
+			keys[size++] = key;
+		}
+
+		private int[] toArray(){
+			return Arrays.copyOf(keys, size);
+		}
+	}
+
+}
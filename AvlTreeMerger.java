@@ -0,0 +1,228 @@
+package oop.ex4.data_structures;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * This class merges many ascending streams of integers into a single ascending stream without
+ * duplicates - for instance the keys of many AVL trees, one per partition.
+ * The merge is done with a tournament (loser) tree that is kept in a flat int array: every internal
+ * node of the tournament remembers the source that lost the match played there, and the overall
+ * winner is the source holding the smallest current key. After a key is taken from the winner, only
+ * the matches on the path from its leaf to the top are replayed, so every key costs O(log k)
+ * comparisons for k sources, without a heap of boxed entries.
+ */
+public final class AvlTreeMerger {
+
+	/* Index of the tournament array that holds the overall winner, above the topmost match. */
+	private static final int WINNER_INDEX = 0;
+	private static final int TOP_MATCH = 1;
+
+
+	/*
+	 * The class only offers static methods, so it is never instantiated.
+	 */
+	private AvlTreeMerger(){
+	}
+
+
+	/**
+	 * Merges the given iterators into a single iterator that returns all of their keys in an
+	 * ascending order, with every key returned only once even if it appears in several sources.
+	 * @param sources Iterators that each return their keys in an ascending order.
+	 * @return An iterator over the sorted union of the sources. The sources are consumed lazily, as
+	 * the returned iterator advances.
+	 */
+	public static PrimitiveIterator.OfInt merge(PrimitiveIterator.OfInt... sources){
+		return new MergeIterator(sources);
+	}
+
+	/**
+	 * Merges the keys of the given trees into a single iterator that returns them in an ascending
+	 * order, with every key returned only once.
+	 * @param trees The trees to merge. Null trees are treated as empty ones.
+	 * @return An iterator over the sorted union of the keys of the trees.
+	 */
+	public static PrimitiveIterator.OfInt mergeTrees(AvlTree... trees){
+		return new MergeIterator(treeIterators(trees));
+	}
+
+	/**
+	 * Builds a new, balanced AVL tree holding the union of the keys of the given trees. The merged
+	 * keys are collected into an array and the tree is built directly from it, so no rotations are
+	 * made. The given trees are not changed.
+	 * @param trees The trees to merge. Null trees are treated as empty ones.
+	 * @return A new AVL tree with every key that appears in at least one of the trees.
+	 */
+	public static AvlTree mergeToTree(AvlTree... trees){
+		int capacity = 0;
+		int mergedSize = 0;
+		int[] mergedKeys;
+		PrimitiveIterator.OfInt merged;
+
+		// The union can't be larger than the sum of the sizes, so a single allocation is enough.
+		for(AvlTree tree:trees){
+			if(tree != null){
+				capacity += tree.size();
+			}
+		}
+		mergedKeys = new int[capacity];
+		merged = mergeTrees(trees);
+		while(merged.hasNext()){
+			mergedKeys[mergedSize++] = merged.nextInt();
+		}
+		return AvlTree.buildFromSorted(mergedKeys, 0, mergedSize);
+	}
+
+
+	/*
+	 * Returns a primitive iterator for every given tree, using an empty tree's iterator for nulls.
+	 */
+	private static PrimitiveIterator.OfInt[] treeIterators(AvlTree[] trees){
+		PrimitiveIterator.OfInt[] iterators = new PrimitiveIterator.OfInt[trees.length];
+		for(int i=0;i<trees.length;i++){
+			iterators[i] = (trees[i] != null) ? trees[i].intIterator() : new AvlTree().intIterator();
+		}
+		return iterators;
+	}
+
+
+	/**
+	 * Iterates over the union of several ascending sources using a loser tree.
+	 * Source i is the leaf at index (k + i) of the tournament, and the match at index j is
+	 * played between the winners of the matches at 2j and 2j+1. The tournament array itself
+	 * only holds the internal matches - index 0 holds the overall winner.
+	 */
+	private static class MergeIterator implements PrimitiveIterator.OfInt{
+
+		private final PrimitiveIterator.OfInt[] sources;
+		private final int[] heads;
+		private final boolean[] isExhausted;
+		private final int[] tournament;
+
+		private boolean hasReturnedKeys;
+		private int lastKey;
+
+
+		/**
+		 * Constructor. Reads the first key of every source and plays the initial tournament.
+		 * @param sources The ascending sources to merge.
+		 */
+		public MergeIterator(PrimitiveIterator.OfInt[] sources){
+			int sourceCount = sources.length;
+
+			this.sources = sources;
+			heads = new int[sourceCount];
+			isExhausted = new boolean[sourceCount];
+			tournament = new int[Math.max(sourceCount, TOP_MATCH)];
+			hasReturnedKeys = false;
+
+			for(int i=0;i<sourceCount;i++){
+				advance(i);
+			}
+			if(sourceCount > 0){
+				tournament[WINNER_INDEX] = playMatch(TOP_MATCH);
+			}else{
+				// With no sources at all, the tournament is meaningless - hasNext() checks for this.
+				tournament[WINNER_INDEX] = -1;
+			}
+		}
+
+		public boolean hasNext(){
+			int winner = tournament[WINNER_INDEX];
+
+			if(winner < 0){
+				return false;
+			}
+			// Keys that were already returned by another source are skipped.
+			while(!isExhausted[winner] && hasReturnedKeys && heads[winner] == lastKey){
+				advance(winner);
+				winner = replay(winner);
+			}
+			return !isExhausted[winner];
+		}
+
+		public int nextInt(){
+			int winner;
+
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			winner = tournament[WINNER_INDEX];
+			lastKey = heads[winner];
+			hasReturnedKeys = true;
+			advance(winner);
+			replay(winner);
+			return lastKey;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+
+		/*
+		 * Reads the next key of the given source into its head, or marks it as exhausted.
+		 */
+		private void advance(int source){
+			if(sources[source] != null && sources[source].hasNext()){
+				heads[source] = sources[source].nextInt();
+			}else{
+				isExhausted[source] = true;
+			}
+		}
+
+		/*
+		 * Returns true if the first source beats the second one, meaning it holds a smaller key.
+		 * An exhausted source loses to every other source.
+		 */
+		private boolean beats(int first, int second){
+			if(isExhausted[first]){
+				return false;
+			}
+			return isExhausted[second] || heads[first] < heads[second];
+		}
+
+		/*
+		 * Recursively plays the initial tournament under the given index, storing the loser of
+		 * every match in its place and returning the winner.
+		 */
+		private int playMatch(int index){
+			int sourceCount = sources.length;
+			int leftWinner;
+			int rightWinner;
+
+			if(index >= sourceCount){
+				return index - sourceCount; // A leaf - the source itself.
+			}
+			leftWinner = playMatch(2 * index);
+			rightWinner = playMatch(2 * index + 1);
+			if(beats(rightWinner, leftWinner)){
+				tournament[index] = leftWinner;
+				return rightWinner;
+			}else{
+				tournament[index] = rightWinner;
+				return leftWinner;
+			}
+		}
+
+		/*
+		 * Replays the matches on the path from the given source's leaf to the top, after the head
+		 * of that source changed. Returns the new overall winner.
+		 */
+		private int replay(int source){
+			int winner = source;
+			int temp;
+
+			for(int index=(sources.length + source) / 2;index >= TOP_MATCH;index /= 2){
+				if(beats(tournament[index], winner)){
+					temp = tournament[index];
+					tournament[index] = winner;
+					winner = temp;
+				}
+			}
+			tournament[WINNER_INDEX] = winner;
+			return winner;
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package oop.ex4.data_structures;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * This class represents a single, immutable version of a SnapshotAvlTree. None of its nodes is
+ * ever changed after the version is published, so any number of threads may search and iterate
+ * it at the same time without any locking. Consecutive versions share all the subtrees that the
+ * writer didn't touch, which also lets diff() skip them.
+ * The nodes of a snapshot don't use their parent references, which are always null.
+ */
+public class AvlTreeSnapshot implements Iterable<Integer>{
+
+	private final AvlNode root;
+	private final int size;
+
+
+	/*
+	 * Constructor. The given nodes must never be changed after this call.
+	 */
+	AvlTreeSnapshot(AvlNode root, int size){
+		this.root = root;
+		this.size = size;
+	}
+
+
+	/**
+	 * Check whether the snapshot contains the given input value.
+	 * @param searchVal The value to search for.
+	 * @return The depth of the node (0 for the root) with the
+	 * given value if it was found in the snapshot, -1 otherwise.
+	 */
+	public int contains(int searchVal){
+		return AvlTree.findDepth(root, searchVal);
+	}
+
+	/**
+	 * @return The Number of nodes in the snapshot.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return An iterator over the keys of the snapshot in an ascending order. It does not
+	 * implement the remove() method.
+	 */
+	public Iterator<Integer> iterator(){
+		return new SnapshotIterator();
+	}
+
+	/**
+	 * @return An iterator over the keys of the snapshot in an ascending order, as primitive ints.
+	 */
+	public PrimitiveIterator.OfInt intIterator(){
+		return new SnapshotIterator();
+	}
+
+	/**
+	 * Finds the keys that were added and removed in the given snapshot, relative to this one.
+	 * Subtrees that both snapshots share are skipped as a whole, so the cost depends mostly on
+	 * the number of writes between the two versions, rather than on their size.
+	 * @param newer The newer snapshot. A null snapshot is treated as an empty one.
+	 * @return The keys that appear only in the given snapshot (added), and the keys that
+	 * appear only in this snapshot (removed), each in an ascending order.
+	 */
+	public AvlTreeDiff diff(AvlTreeSnapshot newer){
+		return AvlTreeDiff.between(root, (newer != null) ? newer.root : null);
+	}
+
+
+	/*
+	 * Returns the root of the snapshot, for the writer that builds the next version from it.
+	 */
+	AvlNode getRoot(){
+		return root;
+	}
+
+
+	/**
+	 * Iterates over a snapshot in ascending order. Since the nodes of a snapshot have no parent
+	 * references, the path from the root to the next node is kept on a stack.
+	 */
+	private class SnapshotIterator implements PrimitiveIterator.OfInt{
+
+		private final AvlNode[] path;
+		private int pathLength;
+
+
+		/**
+		 * Constructor. Goes down the left spine of the snapshot to its smallest key.
+		 */
+		public SnapshotIterator(){
+			// A path is never longer than the height of the tree plus one.
+			path = new AvlNode[(root != null) ? root.getHeight() + 1 : 0];
+			pathLength = 0;
+			pushLeftSpine(root);
+		}
+
+		public boolean hasNext(){
+			return pathLength > 0;
+		}
+
+		public int nextInt(){
+			AvlNode nextNode;
+
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			nextNode = path[--pathLength];
+			path[pathLength] = null;
+			pushLeftSpine(nextNode.getRightChild());
+			return nextNode.getKey();
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+
+		/*
+		 * Pushes the given node and all of its left descendants on the path.
+		 */
+		private void pushLeftSpine(AvlNode node){
+			while(node != null){
+				path[pathLength++] = node;
+				node = node.getLeftChild();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,459 @@
+package oop.ex4.data_structures;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class represents a set of integers that absorbs bursts of writes in a buffer before they
+ * reach the large main AVL tree, in the spirit of an LSM tree.
+ * Writes are blind: add() and delete() only record the latest write of the key (an insert or a
+ * tombstone) in a hash table, without searching the main tree, so a write costs a single probe.
+ * Whether a write actually changed the set is resolved when it is merged. A background thread
+ * periodically (or whenever the buffer grows past its threshold) freezes the buffer, sorts its
+ * writes, and applies them to the main tree in ascending order, a batch at a time. Consecutive keys
+ * of a large sorted batch share most of their path in the main tree, so merging a key costs much
+ * less than adding it to the main tree directly.
+ * A lookup checks the active buffer first, then the buffer that is being merged (if any), and only
+ * then the main tree. The newest level that knows about a key decides whether it is in the set.
+ * Lookups never lock the buffers, so they never wait for writers - at most for the batch that the
+ * background thread is applying to the main tree.
+ * The background thread holds a reference to the set, so an instance is never reclaimed until it is
+ * closed - close() must be called once the set is no longer needed.
+ */
+public class BufferedAvlTree implements AutoCloseable{
+
+	public static final int DEFAULT_BUFFER_THRESHOLD = 1 << 16;
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+	/* The number of buffered keys merged into the main tree under a single hold of its lock. */
+	private static final int MERGE_BATCH_SIZE = 256;
+
+	private static final int KEY_PRESENT = 1;
+	private static final int KEY_ABSENT = 0;
+	private static final int KEY_UNKNOWN = -1;
+
+	private final int bufferThreshold;
+	private final AvlTree mainTree;
+
+	/* Serializes the writers with each other, and with the freezing of the active buffer. */
+	private final Lock writeLock;
+	/* Guards the main tree. Only the merge holds its write lock, a batch at a time. */
+	private final ReadWriteLock mainLock;
+	/* Makes sure only one flush runs at a time. */
+	private final Lock flushLock;
+
+	private final ScheduledExecutorService mergeThread;
+	private final AtomicBoolean isFlushRequested;
+
+	/* The active and the frozen buffers. Replaced as a whole, so a reader sees a matching pair. */
+	private volatile Levels levels;
+
+
+	/**
+	 * Creates an empty set with the default buffer threshold and flush interval.
+	 */
+	public BufferedAvlTree(){
+		this(DEFAULT_BUFFER_THRESHOLD, DEFAULT_FLUSH_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Creates an empty set, and starts its background merge thread. The thread runs until close()
+	 * is called.
+	 * @param bufferThreshold The number of buffered keys after which a merge is started, without
+	 * waiting for the next interval (a positive number). Larger buffers are merged faster per key.
+	 * @param flushIntervalMillis The time between two periodic merges, in milliseconds (a positive
+	 * number).
+	 * @throws IllegalArgumentException If one of the arguments isn't positive.
+	 */
+	public BufferedAvlTree(int bufferThreshold, long flushIntervalMillis){
+		if(bufferThreshold <= 0 || flushIntervalMillis <= 0){
+			throw new IllegalArgumentException();
+		}
+
+		this.bufferThreshold = bufferThreshold;
+		mainTree = new AvlTree();
+		writeLock = new ReentrantLock();
+		mainLock = new ReentrantReadWriteLock();
+		flushLock = new ReentrantLock();
+		isFlushRequested = new AtomicBoolean(false);
+		levels = new Levels(new WriteBuffer(), null);
+
+		mergeThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "AvlTree-buffer-merge");
+			thread.setDaemon(true); // The merge thread alone shouldn't keep the program alive.
+			return thread;
+		});
+		mergeThread.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Adds the given key to the set, by recording an insert for it in the write buffer. The main
+	 * tree is not searched, so it isn't known at this point whether the key was already in the set.
+	 * @param newValue The key to add.
+	 */
+	public void add(int newValue){
+		write(newValue, WriteBuffer.INSERT);
+	}
+
+	/**
+	 * Removes the given key from the set, by recording a tombstone for it in the write buffer. The
+	 * main tree is not searched, so it isn't known at this point whether the key was in the set.
+	 * @param toDelete The key to remove.
+	 */
+	public void delete(int toDelete){
+		write(toDelete, WriteBuffer.TOMBSTONE);
+	}
+
+	/**
+	 * Checks whether the set holds the given key, consulting the buffers before the main tree.
+	 * Never waits for add() or delete().
+	 * @param searchVal The key to search for.
+	 * @return true if the key is in the set, false otherwise.
+	 */
+	public boolean contains(int searchVal){
+		Levels current = levels;
+		int state = current.active.lookup(searchVal);
+
+		if(state == KEY_UNKNOWN && current.frozen != null){
+			state = current.frozen.lookup(searchVal);
+		}
+		if(state != KEY_UNKNOWN){
+			return state == KEY_PRESENT;
+		}
+
+		mainLock.readLock().lock();
+		try{
+			return mainTree.contains(searchVal) >= 0;
+		}finally{
+			mainLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Since writes are blind, the buffered ones are counted as if every insert added a new key and
+	 * every tombstone removed an existing one. The result is exact when nothing is buffered, for
+	 * instance right after flush() if no other thread writes.
+	 * @return An estimate of the number of keys in the set.
+	 */
+	public int size(){
+		Levels current = levels;
+		int size;
+
+		mainLock.readLock().lock();
+		try{
+			size = mainTree.size();
+		}finally{
+			mainLock.readLock().unlock();
+		}
+		size += current.active.sizeChange();
+		if(current.frozen != null){
+			size += current.frozen.sizeChange();
+		}
+		return Math.max(size, 0);
+	}
+
+
+	/**
+	 * Merges all the writes buffered so far into the main tree, and returns when they are merged.
+	 * This is done periodically by the background thread, but may also be called directly.
+	 */
+	public void flush(){
+		WriteBuffer toMerge;
+
+		flushLock.lock();
+		try{
+			isFlushRequested.set(false);
+
+			writeLock.lock();
+			try{
+				toMerge = levels.active;
+				if(toMerge.size() == 0){
+					return;
+				}
+				// Freezing the buffer - new writes go to a fresh buffer while this one is merged.
+				levels = new Levels(new WriteBuffer(), toMerge);
+			}finally{
+				writeLock.unlock();
+			}
+
+			// The frozen buffer is consulted before the main tree, so lookups stay correct while
+			// the main tree holds only part of it. No writer can reach it anymore.
+			mergeIntoMain(toMerge.sortedWrites());
+
+			writeLock.lock();
+			try{
+				levels = new Levels(levels.active, null);
+			}finally{
+				writeLock.unlock();
+			}
+		}finally{
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Merges the remaining buffered writes into the main tree and stops the background thread.
+	 * Until this is called, the background thread keeps the set from being reclaimed. The set may
+	 * still be used afterwards, but it is only merged by explicit calls to flush().
+	 */
+	public void close(){
+		mergeThread.shutdown();
+		flush();
+	}
+
+
+	/*
+	 * Records the given write (an insert or a tombstone) of the key in the active buffer, and asks
+	 * for a merge if the buffer is full.
+	 */
+	private void write(int key, int writeType){
+		boolean isBufferFull;
+
+		writeLock.lock();
+		try{
+			WriteBuffer active = levels.active;
+			active.record(key, writeType);
+			isBufferFull = active.size() >= bufferThreshold;
+		}finally{
+			writeLock.unlock();
+		}
+
+		if(isBufferFull){
+			requestFlush();
+		}
+	}
+
+	/*
+	 * Applies the given writes, sorted by key, to the main tree, taking the main tree's write lock
+	 * for one batch of writes at a time.
+	 */
+	private void mergeIntoMain(long[] sortedWrites){
+		int position = 0;
+
+		while(position < sortedWrites.length){
+			int batchEnd = Math.min(position + MERGE_BATCH_SIZE, sortedWrites.length);
+			mainLock.writeLock().lock();
+			try{
+				for(;position<batchEnd;position++){
+					long write = sortedWrites[position];
+					if(WriteBuffer.typeOf(write) == WriteBuffer.INSERT){
+						mainTree.add(WriteBuffer.keyOf(write));
+					}else{
+						mainTree.delete(WriteBuffer.keyOf(write));
+					}
+				}
+			}finally{
+				mainLock.writeLock().unlock();
+			}
+		}
+	}
+
+	/*
+	 * Asks the background thread to flush as soon as possible, unless it was already asked to.
+	 */
+	private void requestFlush(){
+		if(isFlushRequested.compareAndSet(false, true)){
+			try{
+				mergeThread.execute(this::flush);
+			}
+			catch (RejectedExecutionException exception){
+				// The set was closed - buffered writes are merged by explicit flushes only.
+			}
+		}
+	}
+
+
+	/*
+	 * The buffer that takes new writes, and the one being merged into the main tree (or null).
+	 */
+	private static class Levels{
+
+		private final WriteBuffer active;
+		private final WriteBuffer frozen;
+
+		private Levels(WriteBuffer active, WriteBuffer frozen){
+			this.active = active;
+			this.frozen = frozen;
+		}
+	}
+
+
+	/*
+	 * A level of buffered writes - the latest write of every key, in an open addressing hash table
+	 * with linear probing. Every write is a long, with the key in its upper half and the type of
+	 * the write (INSERT or TOMBSTONE) in its lower half, so it is stored in a single atomic step
+	 * and lookups may probe the table while a writer changes it. Writes are never removed from the
+	 * table, so a probe never misses a key that is in it. Only one writer may change it at a time.
+	 */
+	private static class WriteBuffer{
+
+		private static final int INSERT = 1;
+		private static final int TOMBSTONE = 2;
+		/* A slot with no write. No write is ever 0, since its type is never 0. */
+		private static final long EMPTY_SLOT = 0;
+
+		private static final int INITIAL_CAPACITY = 1 << 10;
+		/* The table grows when more than one in MAX_LOAD_FRACTION of its slots would be used. */
+		private static final int MAX_LOAD_FRACTION = 2;
+		/* Fibonacci hashing - the upper bits of the product spread consecutive keys apart. */
+		private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+		/* Replaced by a larger table when it fills up. A reader keeps using the table it read. */
+		private volatile AtomicLongArray slots;
+		/* Only changed by the writer. */
+		private volatile int insertCount;
+		private volatile int tombstoneCount;
+
+
+		private WriteBuffer(){
+			slots = new AtomicLongArray(INITIAL_CAPACITY);
+			insertCount = 0;
+			tombstoneCount = 0;
+		}
+
+		/*
+		 * Returns the number of buffered keys.
+		 */
+		private int size(){
+			return insertCount + tombstoneCount;
+		}
+
+		/*
+		 * Returns the change in the size of the set if every buffered write turns out to be effective.
+		 */
+		private int sizeChange(){
+			return insertCount - tombstoneCount;
+		}
+
+		/*
+		 * Returns KEY_PRESENT or KEY_ABSENT by the latest buffered write of the key, or KEY_UNKNOWN
+		 * if the key wasn't written.
+		 */
+		private int lookup(int key){
+			AtomicLongArray table = slots;
+			int mask = table.length() - 1;
+			int slot = firstSlot(table, key);
+			long write = table.get(slot);
+
+			// The writer may fill slots during the probe, so only the writes read here are used.
+			while(write != EMPTY_SLOT){
+				if(keyOf(write) == key){
+					return (typeOf(write) == INSERT) ? KEY_PRESENT : KEY_ABSENT;
+				}
+				slot = (slot + 1) & mask;
+				write = table.get(slot);
+			}
+			return KEY_UNKNOWN;
+		}
+
+		/*
+		 * Records the given write of the key, replacing any earlier write of it. Must only be called
+		 * by one thread at a time.
+		 */
+		private void record(int key, int writeType){
+			AtomicLongArray table = slots;
+			int slot = findSlot(table, key);
+			long previous = table.get(slot);
+
+			if(previous == EMPTY_SLOT){
+				if((long) (size() + 1) * MAX_LOAD_FRACTION > table.length()){
+					table = grow(table);
+					slots = table;
+					slot = findSlot(table, key);
+				}
+			}else if(typeOf(previous) == writeType){
+				return;
+			}else if(writeType == INSERT){ // A tombstone of the key is replaced.
+				tombstoneCount --;
+			}else{ // An insert of the key is replaced.
+				insertCount --;
+			}
+
+			if(writeType == INSERT){
+				insertCount ++;
+			}else{
+				tombstoneCount ++;
+			}
+			table.set(slot, ((long) key << Integer.SIZE) | writeType);
+		}
+
+		/*
+		 * Returns all the buffered writes, sorted by their keys. Since the key is in the upper half,
+		 * sorting the writes as longs sorts them by key.
+		 */
+		private long[] sortedWrites(){
+			AtomicLongArray table = slots;
+			long[] writes = new long[size()];
+			int writeCount = 0;
+
+			for(int i=0;i<table.length();i++){
+				long write = table.get(i);
+				if(write != EMPTY_SLOT){
+					writes[writeCount++] = write;
+				}
+			}
+			Arrays.sort(writes, 0, writeCount);
+			return writes;
+		}
+
+		/*
+		 * Returns a table with twice the slots, holding the same writes. The given table isn't
+		 * changed, so readers that still use it are unaffected.
+		 */
+		private static AtomicLongArray grow(AtomicLongArray table){
+			AtomicLongArray larger = new AtomicLongArray(table.length() * 2);
+
+			for(int i=0;i<table.length();i++){
+				long write = table.get(i);
+				if(write != EMPTY_SLOT){
+					larger.set(findSlot(larger, keyOf(write)), write);
+				}
+			}
+			return larger;
+		}
+
+		/*
+		 * Returns the slot of the table that holds the write of the key, or the empty slot where it
+		 * belongs. The table always has empty slots, so the probe ends. Only for the writer.
+		 */
+		private static int findSlot(AtomicLongArray table, int key){
+			int mask = table.length() - 1;
+			int slot = firstSlot(table, key);
+			long write = table.get(slot);
+
+			while(write != EMPTY_SLOT && keyOf(write) != key){
+				slot = (slot + 1) & mask;
+				write = table.get(slot);
+			}
+			return slot;
+		}
+
+		/*
+		 * Returns the slot where the probe for the key starts. The table length is a power of two,
+		 * so the shift leaves as many upper bits of the product as the table needs.
+		 */
+		private static int firstSlot(AtomicLongArray table, int key){
+			return (key * HASH_MULTIPLIER) >>> Integer.numberOfLeadingZeros(table.length() - 1);
+		}
+
+		private static int keyOf(long write){
+			return (int) (write >> Integer.SIZE);
+		}
+
+		private static int typeOf(long write){
+			return (int) write;
+		}
+	}
+
+}
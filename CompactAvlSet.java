@@ -0,0 +1,270 @@
+package oop.ex4.data_structures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * This class represents an immutable, compressed snapshot of the keys of an AVL tree, meant for
+ * large sets that are rarely changed but must stay in memory for lookups.
+ * The keys are kept in ascending order, split into blocks of BLOCK_SIZE keys. The first key of
+ * every block is kept uncompressed in a sampled index, and every other key is kept as its
+ * difference from the previous key, written as a variable-length number (7 bits per byte, with
+ * the top bit marking that more bytes follow). Close keys therefore take a single byte each,
+ * instead of a whole AvlNode object.
+ * A lookup binary searches the index for its block, and then decodes at most one block.
+ */
+public class CompactAvlSet implements Iterable<Integer>{
+
+	/* The number of keys in every block except maybe the last one. */
+	public static final int BLOCK_SIZE = 64;
+
+	private static final int PAYLOAD_BITS = 7;
+	private static final int PAYLOAD_MASK = 0x7F;
+	private static final int CONTINUATION_BIT = 0x80;
+	private static final int MAX_BYTES_PER_DELTA = 5; // 32 bits in 7 bit groups.
+	private static final int INITIAL_BYTES_PER_KEY = 2;
+
+	private final int size;
+	private final int[] blockFirstKeys;
+	private final int[] blockOffsets; // The index in data where the deltas of every block start.
+	private final byte[] data;
+
+
+	/*
+	 * Constructor. Compresses the keys of the given iterator, which must return exactly size keys
+	 * in a strictly ascending order.
+	 */
+	CompactAvlSet(PrimitiveIterator.OfInt sortedKeys, int size){
+		int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int dataLength = 0;
+		int previousKey = 0;
+		byte[] buffer = new byte[Math.max(size, 1) * INITIAL_BYTES_PER_KEY];
+
+		this.size = size;
+		blockFirstKeys = new int[blockCount];
+		blockOffsets = new int[blockCount];
+
+		for(int i=0;i<size;i++){
+			int key = sortedKeys.nextInt();
+			if(i % BLOCK_SIZE == 0){
+				blockFirstKeys[i / BLOCK_SIZE] = key;
+				blockOffsets[i / BLOCK_SIZE] = dataLength;
+			}else{
+				// The keys are ascending, so the delta is positive. It may not fit in a signed int,
+				// but it always fits in an unsigned one, and int overflow undoes it when decoding.
+				int delta = key - previousKey;
+				if(buffer.length - dataLength < MAX_BYTES_PER_DELTA){
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				}
+				while((delta & ~PAYLOAD_MASK) != 0){
+					buffer[dataLength++] = (byte) ((delta & PAYLOAD_MASK) | CONTINUATION_BIT);
+					delta >>>= PAYLOAD_BITS;
+				}
+				buffer[dataLength++] = (byte) delta;
+			}
+			previousKey = key;
+		}
+		data = Arrays.copyOf(buffer, dataLength);
+	}
+
+
+	/**
+	 * @return The number of keys in the set.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Checks whether the set contains the given value.
+	 * @param searchVal The value to search for.
+	 * @return true if the value is in the set, false otherwise.
+	 */
+	public boolean contains(int searchVal){
+		int block = findBlock(searchVal);
+		BlockCursor cursor;
+
+		if(block < 0){
+			return false;
+		}
+		cursor = new BlockCursor(block);
+		while(cursor.hasKey() && cursor.key() < searchVal){
+			cursor.advance();
+		}
+		return cursor.hasKey() && cursor.key() == searchVal;
+	}
+
+	/**
+	 * @param searchVal A value, not necessarily in the set.
+	 * @return The number of keys in the set that are smaller than the given value.
+	 */
+	public int rank(int searchVal){
+		int block = findBlock(searchVal);
+		int smallerKeys;
+		BlockCursor cursor;
+
+		if(block < 0){
+			return 0;
+		}
+		smallerKeys = block * BLOCK_SIZE;
+		cursor = new BlockCursor(block);
+		while(cursor.hasKey() && cursor.key() < searchVal){
+			smallerKeys ++;
+			cursor.advance();
+		}
+		return smallerKeys;
+	}
+
+	/**
+	 * @return An iterator over all the keys, in ascending order, as primitive ints.
+	 */
+	public PrimitiveIterator.OfInt intIterator(){
+		return new RangeIterator(Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return An iterator over all the keys, in ascending order. It does not implement remove().
+	 */
+	public Iterator<Integer> iterator(){
+		return intIterator();
+	}
+
+	/**
+	 * @param fromKey The smallest key to return.
+	 * @param toKey The largest key to return.
+	 * @return An iterator over the keys in the range [fromKey, toKey], in ascending order. Only the
+	 * blocks that overlap the range are decoded.
+	 */
+	public PrimitiveIterator.OfInt range(int fromKey, int toKey){
+		return new RangeIterator(fromKey, toKey);
+	}
+
+	/**
+	 * Builds a new, mutable AVL tree with the keys of the set, in linear time.
+	 * @return A new balanced AVL tree holding all the keys of the set.
+	 */
+	public AvlTree toAvlTree(){
+		int[] keys = new int[size];
+		PrimitiveIterator.OfInt iterator = intIterator();
+
+		for(int i=0;i<size;i++){
+			keys[i] = iterator.nextInt();
+		}
+		return AvlTree.buildFromSorted(keys, 0, size);
+	}
+
+
+	/*
+	 * Returns the index of the last block whose first key isn't larger than the given key, which is
+	 * the only block that may hold it. Returns -1 if the key is smaller than all the keys.
+	 */
+	private int findBlock(int key){
+		int index = Arrays.binarySearch(blockFirstKeys, key);
+		if(index >= 0){
+			return index;
+		}
+		// binarySearch returns -(insertion point) - 1, and the block before the insertion point
+		// is the one that may hold the key.
+		return -index - 2;
+	}
+
+
+	/*
+	 * Decodes the keys of the set one after the other, starting from the beginning of a given
+	 * block and continuing into the blocks after it.
+	 */
+	private class BlockCursor{
+
+		private int block;
+		private int indexInBlock;
+		private int offset;
+		private int key;
+
+		private BlockCursor(int block){
+			this.block = block;
+			indexInBlock = 0;
+			if(block < blockFirstKeys.length){
+				offset = blockOffsets[block];
+				key = blockFirstKeys[block];
+			}
+		}
+
+		private boolean hasKey(){
+			return block < blockFirstKeys.length;
+		}
+
+		private int key(){
+			return key;
+		}
+
+		private void advance(){
+			int delta = 0;
+			int shift = 0;
+			byte current;
+
+			indexInBlock ++;
+			if(indexInBlock == BLOCK_SIZE || block * BLOCK_SIZE + indexInBlock == size){
+				block ++;
+				indexInBlock = 0;
+				if(block < blockFirstKeys.length){
+					offset = blockOffsets[block];
+					key = blockFirstKeys[block];
+				}
+				return;
+			}
+
+			do{
+				current = data[offset++];
+				delta |= (current & PAYLOAD_MASK) << shift;
+				shift += PAYLOAD_BITS;
+			}while((current & CONTINUATION_BIT) != 0);
+			key += delta;
+		}
+	}
+
+
+	/**
+	 * Iterates over the keys of the set in a given range, decoding them as it goes.
+	 */
+	private class RangeIterator implements PrimitiveIterator.OfInt{
+
+		private final BlockCursor cursor;
+		private final int toKey;
+
+
+		/**
+		 * Constructor. Skips to the first key that is not smaller than fromKey.
+		 * @param fromKey The smallest key to return.
+		 * @param toKey The largest key to return.
+		 */
+		public RangeIterator(int fromKey, int toKey){
+			this.toKey = toKey;
+			cursor = new BlockCursor(Math.max(findBlock(fromKey), 0));
+			while(cursor.hasKey() && cursor.key() < fromKey){
+				cursor.advance();
+			}
+		}
+
+		public boolean hasNext(){
+			return cursor.hasKey() && cursor.key() <= toKey;
+		}
+
+		public int nextInt(){
+			int currentKey;
+
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			currentKey = cursor.key();
+			cursor.advance();
+			return currentKey;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
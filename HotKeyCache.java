@@ -0,0 +1,225 @@
+package oop.ex4.data_structures;
+
+/**
+ * This class is a small, fixed size cache of lookup results for an AvlTree - for every cached key
+ * it keeps the depth of its node, or -1 if the key is known not to be in the tree.
+ * The cache is set associative: a key can only be kept in the WAYS slots of the set its hash
+ * points to, so a lookup probes at most WAYS slots of flat primitive arrays.
+ * Every lookup, hit or miss, is counted in a count-min sketch of small counters that are halved
+ * periodically, so old popularity fades. The sketch is the only frequency estimate: the victim of
+ * a full set is its least frequent key, and a new key is only admitted in its place if the sketch
+ * estimates it to be more frequent than that victim (TinyLFU), which keeps one-off lookups from
+ * flushing out the hot keys.
+ */
+class HotKeyCache {
+
+	/* Returned by lookup() when the key isn't cached. Depths and -1 are never this value. */
+	static final int CACHE_MISS = Integer.MIN_VALUE;
+	/* The largest capacity a cache can be created with, so its arrays never overflow. */
+	static final int MAX_CAPACITY = 1 << 24;
+
+	private static final int WAYS = 8;
+	private static final int SKETCH_ROWS = 4;
+	private static final int MAX_COUNTER = 15;
+	/* The sketch is aged after this many recorded accesses per cache slot. */
+	private static final int SAMPLES_PER_SLOT = 10;
+
+	private static final int SECOND_HASH_SEED = 0x9E3779B9;
+
+	private final int setMask;
+	private final int[] keys;
+	private final int[] depths;
+	private final boolean[] isOccupied;
+
+	private final int sketchMask;
+	private final byte[] sketch;
+	private final int samplesBeforeAging;
+	private int samples;
+
+	private long hits;
+	private long misses;
+
+
+	/*
+	 * Constructor. The capacity (at most MAX_CAPACITY) is rounded up to a power of two that is a
+	 * multiple of WAYS.
+	 */
+	HotKeyCache(int capacity){
+		int setCount = Integer.highestOneBit(Math.max((capacity + WAYS - 1) / WAYS, 1) * 2 - 1);
+		int sketchWidth = setCount * WAYS;
+
+		setMask = setCount - 1;
+		keys = new int[setCount * WAYS];
+		depths = new int[setCount * WAYS];
+		isOccupied = new boolean[setCount * WAYS];
+
+		sketchMask = sketchWidth - 1;
+		sketch = new byte[SKETCH_ROWS * sketchWidth];
+		samplesBeforeAging = SAMPLES_PER_SLOT * keys.length;
+		samples = 0;
+
+		hits = 0;
+		misses = 0;
+	}
+
+
+	/*
+	 * Returns the cached depth of the given key (-1 if it is cached as absent), or CACHE_MISS if
+	 * the key isn't cached. Either way, the access is counted in the sketch.
+	 */
+	int lookup(int key){
+		int hash = mix(key);
+		int slot = findSlot(key, hash);
+
+		recordAccess(hash);
+		if(slot < 0){
+			misses ++;
+			return CACHE_MISS;
+		}
+		hits ++;
+		return depths[slot];
+	}
+
+	/*
+	 * Offers the result of a lookup that missed the cache. The key takes an empty slot of its set
+	 * if there is one, otherwise it replaces the least frequent key of the set - but only if the
+	 * sketch estimates it to be more frequent than that key.
+	 */
+	void put(int key, int depth){
+		int hash = mix(key);
+		int firstSlot = (hash & setMask) * WAYS;
+		int victim = -1;
+		int victimFrequency = MAX_COUNTER + 1;
+
+		for(int slot=firstSlot;slot<firstSlot + WAYS;slot++){
+			if(!isOccupied[slot]){
+				victim = slot;
+				victimFrequency = -1;
+				break;
+			}
+			int frequency = estimateFrequency(mix(keys[slot]));
+			if(frequency < victimFrequency){
+				victim = slot;
+				victimFrequency = frequency;
+			}
+		}
+
+		if(estimateFrequency(hash) <= victimFrequency){
+			return; // The victim is at least as popular, and stays.
+		}
+		keys[victim] = key;
+		depths[victim] = depth;
+		isOccupied[victim] = true;
+	}
+
+	/*
+	 * Removes the given key from the cache, if it is cached.
+	 */
+	void invalidate(int key){
+		int slot = findSlot(key, mix(key));
+		if(slot >= 0){
+			isOccupied[slot] = false;
+		}
+	}
+
+	/*
+	 * Removes every cached key within [from, to]. The keys of a range are spread over all the sets,
+	 * so every slot is checked - for a range of only a few keys, invalidate() them one by one.
+	 */
+	void invalidateRange(int from, int to){
+		for(int slot=0;slot<keys.length;slot++){
+			if(isOccupied[slot] && keys[slot] >= from && keys[slot] <= to){
+				isOccupied[slot] = false;
+			}
+		}
+	}
+
+	/*
+	 * Returns the number of slots, which is also the number of steps invalidateRange() takes.
+	 */
+	int getCapacity(){
+		return keys.length;
+	}
+
+	long getHits(){
+		return hits;
+	}
+
+	long getMisses(){
+		return misses;
+	}
+
+
+	/*
+	 * Returns the slot holding the given key, or -1 if it isn't cached.
+	 */
+	private int findSlot(int key, int hash){
+		int firstSlot = (hash & setMask) * WAYS;
+		for(int slot=firstSlot;slot<firstSlot + WAYS;slot++){
+			if(isOccupied[slot] && keys[slot] == key){
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Increments the counters of the key (given by its hash) in every row of the sketch, up to
+	 * MAX_COUNTER. After enough accesses, all the counters are halved.
+	 */
+	private void recordAccess(int hash){
+		int secondHash = secondHash(hash);
+		for(int row=0;row<SKETCH_ROWS;row++){
+			int index = sketchIndex(hash, secondHash, row);
+			if(sketch[index] < MAX_COUNTER){
+				sketch[index] ++;
+			}
+		}
+
+		samples ++;
+		if(samples >= samplesBeforeAging){
+			for(int i=0;i<sketch.length;i++){
+				sketch[i] >>= 1;
+			}
+			samples = 0;
+		}
+	}
+
+	/*
+	 * Returns the estimated recent access frequency of the key (given by its hash) - the smallest
+	 * of its counters.
+	 */
+	private int estimateFrequency(int hash){
+		int secondHash = secondHash(hash);
+		int frequency = MAX_COUNTER;
+		for(int row=0;row<SKETCH_ROWS;row++){
+			frequency = Math.min(frequency, sketch[sketchIndex(hash, secondHash, row)]);
+		}
+		return frequency;
+	}
+
+	/*
+	 * Returns the index of the key's counter in the given row. The rows use the combinations
+	 * hash + row * secondHash of two hashes, instead of a separate hash function per row.
+	 */
+	private int sketchIndex(int hash, int secondHash, int row){
+		return row * (sketchMask + 1) + ((hash + row * secondHash) & sketchMask);
+	}
+
+	private static int secondHash(int hash){
+		return mix(hash ^ SECOND_HASH_SEED) | 1; // Odd, so the rows never collapse onto each other.
+	}
+
+	/*
+	 * Scrambles the bits of the key, so that close keys end up in different sets.
+	 */
+	private static int mix(int key){
+		key ^= key >>> 16;
+		key *= 0x85EBCA6B;
+		key ^= key >>> 13;
+		key *= 0xC2B2AE35;
+		key ^= key >>> 16;
+		return key;
+	}
+
+}
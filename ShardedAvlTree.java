@@ -0,0 +1,662 @@
+package oop.ex4.data_structures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * This class represents a set of integers that is partitioned by key range into several shards,
+ * each of them a separate AVL tree guarded by its own lock. Writers of keys that belong to different
+ * shards never wait for each other, so the container scales with the number of writing threads
+ * instead of being bottlenecked on a single root.
+ * Shard i holds the keys in the range [lowerBounds[i], lowerBounds[i+1]), and the last shard holds
+ * everything up to Integer.MAX_VALUE. The boundaries and the shards form an immutable layout that is
+ * published through a single volatile field, so an operation only reads that field and takes the
+ * lock of its own shard - no lock or counter is shared by all the operations.
+ * When the keys are skewed and one shard grows much larger than the average, that shard is split in
+ * two, and the two adjacent shards with the fewest keys are merged into one, so the number of shards
+ * stays the same and only the shards involved are locked and rebuilt. The replaced shards are marked
+ * as retired, and an operation that finds its shard retired retries with the new layout.
+ */
+public class ShardedAvlTree implements Iterable<Integer>{
+
+	public static final int DEFAULT_SHARD_COUNT = 16;
+
+	/* A shard is considered skewed when it holds more than this many times the average shard size. */
+	private static final int SKEW_FACTOR = 4;
+	/* Rebalancing is not worth it for small containers, whatever the distribution. */
+	private static final int MIN_SIZE_FOR_REBALANCE = 1024;
+	/* The skew is checked once every this many successful additions to the same shard. */
+	private static final int ADDS_BETWEEN_SKEW_CHECKS = 256;
+	/* Returned by Shard.applyAll() when the shard was retired before it could take its lock. */
+	private static final int SHARD_RETIRED = -1;
+
+	/* The current boundaries and shards. Replaced as a whole, never changed in place. */
+	private volatile Layout layout;
+	/* Makes sure only one thread replaces shards at a time. Regular operations never take it. */
+	private final Lock restructureLock;
+
+
+	/**
+	 * Creates an empty container with the default number of shards.
+	 */
+	public ShardedAvlTree(){
+		this(DEFAULT_SHARD_COUNT);
+	}
+
+	/**
+	 * Creates an empty container with the given number of shards. Until the first rebalance, the
+	 * integer range is split into equal-width shards.
+	 * @param shardCount The number of shards (a positive number).
+	 * @throws IllegalArgumentException If the number of shards isn't positive.
+	 */
+	public ShardedAvlTree(int shardCount){
+		long width;
+		int[] lowerBounds;
+		Shard[] shards;
+
+		if(shardCount <= 0){
+			throw new IllegalArgumentException();
+		}
+
+		restructureLock = new ReentrantLock();
+		lowerBounds = new int[shardCount];
+		shards = new Shard[shardCount];
+
+		// Computed in long arithmetic, since the full integer range doesn't fit in an int.
+		width = (((long) Integer.MAX_VALUE - Integer.MIN_VALUE) + 1) / shardCount;
+		for(int i=0;i<shardCount;i++){
+			lowerBounds[i] = (int) (Integer.MIN_VALUE + width * i);
+			shards[i] = new Shard(new AvlTree());
+		}
+		layout = new Layout(lowerBounds, shards);
+	}
+
+
+	/**
+	 * Adds the given key to the shard that owns it.
+	 * @param newValue The key to add.
+	 * @return true if the key wasn't already in the container and was added, false otherwise.
+	 */
+	public boolean add(int newValue){
+		boolean added;
+		boolean isSkewCheckDue = false;
+		Shard shard = lockShard(newValue, true);
+
+		try{
+			added = shard.tree.add(newValue);
+			if(added && ++shard.addsSinceSkewCheck >= ADDS_BETWEEN_SKEW_CHECKS){
+				shard.addsSinceSkewCheck = 0;
+				isSkewCheckDue = true;
+			}
+		}finally{
+			shard.lock.writeLock().unlock();
+		}
+
+		if(isSkewCheckDue){
+			rebalanceIfSkewed();
+		}
+		return added;
+	}
+
+	/**
+	 * Removes the given key from the shard that owns it, if it exists.
+	 * @param toDelete The key to remove.
+	 * @return true if the key was found and deleted, false otherwise.
+	 */
+	public boolean delete(int toDelete){
+		Shard shard = lockShard(toDelete, true);
+		try{
+			return shard.tree.delete(toDelete);
+		}finally{
+			shard.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Checks whether the container holds the given key.
+	 * @param searchVal The key to search for.
+	 * @return The depth of the key within its shard's tree if it was found, -1 otherwise.
+	 */
+	public int contains(int searchVal){
+		Shard shard = lockShard(searchVal, false);
+		try{
+			return shard.tree.contains(searchVal);
+		}finally{
+			shard.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The number of keys in all the shards together.
+	 */
+	public int size(){
+		while(true){
+			Layout current = layout;
+			int size = 0;
+			boolean isStale = false;
+
+			for(Shard shard:current.shards){
+				shard.lock.readLock().lock();
+				try{
+					isStale = shard.isRetired;
+					size += shard.tree.size();
+				}finally{
+					shard.lock.readLock().unlock();
+				}
+				if(isStale){
+					break; // Some keys moved to new shards - counting again with the new layout.
+				}
+			}
+			if(!isStale){
+				return size;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of shards the key space is partitioned into.
+	 */
+	public int shardCount(){
+		return layout.shards.length;
+	}
+
+
+	/**
+	 * Adds all the given keys. The keys are grouped by the shard that owns them, and every shard
+	 * inserts its own group in ascending order in parallel to the other shards.
+	 * @param keys The keys to add. Duplicates are added only once.
+	 * @return The number of keys that weren't already in the container and were added.
+	 */
+	public int addAll(int[] keys){
+		int added = bulkOperation(keys, true);
+		if(added > 0){
+			rebalanceIfSkewed();
+		}
+		return added;
+	}
+
+	/**
+	 * Removes all the given keys, with every shard removing its own group of keys in parallel to
+	 * the other shards.
+	 * @param keys The keys to remove.
+	 * @return The number of keys that were found and deleted.
+	 */
+	public int deleteAll(int[] keys){
+		return bulkOperation(keys, false);
+	}
+
+
+	/**
+	 * Recalculates all the shard boundaries so that every shard holds roughly the same number of
+	 * keys. Skewed shards are split automatically, but this may be called directly, for instance
+	 * after a large bulk load. All operations wait while the shards are rebuilt.
+	 */
+	public void rebalance(){
+		restructureLock.lock();
+		try{
+			Layout current = layout;
+			replaceShards(current, 0, current.shards.length, current.shards.length, 0, 0);
+		}finally{
+			restructureLock.unlock();
+		}
+	}
+
+
+	/**
+	 * @return An iterator over all the keys in ascending order, across all the shards. The iterator
+	 * copies one shard at a time, so it never blocks writers for long and is safe to use while the
+	 * container is modified. Keys added or removed concurrently may or may not be reflected, but no
+	 * key is ever returned twice or out of order. The iterator does not implement remove().
+	 */
+	public Iterator<Integer> iterator(){
+		return new ShardIterator();
+	}
+
+
+	/*
+	 * Returns the shard that currently owns the given key, with its write (or read) lock held. If
+	 * the shard turns out to be retired once its lock is taken, the key moved to a new shard in the
+	 * meantime, so the lookup is repeated with the new layout.
+	 */
+	private Shard lockShard(int key, boolean isWrite){
+		while(true){
+			Layout current = layout;
+			Shard shard = current.shards[current.findShard(key)];
+			Lock lock = isWrite ? shard.lock.writeLock() : shard.lock.readLock();
+
+			lock.lock();
+			if(!shard.isRetired){
+				return shard;
+			}
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Splits the given keys into one sorted group per shard, and lets every shard process its
+	 * group in parallel. Returns the number of keys that were actually added or removed.
+	 */
+	private int bulkOperation(int[] keys, final boolean isAdd){
+		final int[] sortedKeys;
+		final int[] groupStarts;
+		final Layout current = layout;
+		final int shardCount = current.shards.length;
+
+		if(keys == null || keys.length == 0){
+			return 0;
+		}
+
+		sortedKeys = keys.clone();
+		Arrays.parallelSort(sortedKeys);
+
+		// Since the keys are sorted, the group of every shard is a contiguous range of the array.
+		groupStarts = new int[shardCount + 1];
+		for(int i=0;i<shardCount;i++){
+			groupStarts[i] = lowerBound(sortedKeys, current.lowerBounds[i]);
+		}
+		groupStarts[shardCount] = sortedKeys.length;
+
+		return IntStream.range(0, shardCount).parallel().map(i -> applyGroup(current.shards[i],
+				sortedKeys, groupStarts[i], groupStarts[i + 1], isAdd)).sum();
+	}
+
+	/*
+	 * Lets the given shard add or remove the keys in the range [from, to) of the sorted array. If
+	 * the shard was retired in the meantime, the keys are added or removed one by one instead, each
+	 * in the shard that owns it now. Returns the number of keys that were added or removed.
+	 */
+	private int applyGroup(Shard shard, int[] sortedKeys, int from, int to, boolean isAdd){
+		int changed = shard.applyAll(sortedKeys, from, to, isAdd);
+
+		if(changed == SHARD_RETIRED){
+			changed = 0;
+			for(int i=from;i<to;i++){
+				if(isAdd ? add(sortedKeys[i]) : delete(sortedKeys[i])){
+					changed ++;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/*
+	 * Returns the index of the first element in the sorted array that is not smaller than the key.
+	 */
+	private static int lowerBound(int[] sortedKeys, int key){
+		int low = 0;
+		int high = sortedKeys.length;
+
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(sortedKeys[middle] < key){
+				low = middle + 1;
+			}else{
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * While the largest shard holds more than SKEW_FACTOR times the average, splits it in two and
+	 * merges the two adjacent shards with the fewest keys, so the number of shards stays the same.
+	 * Every split at least halves the largest shard, so this ends after a few rounds. If another
+	 * thread is already changing the layout, it is left to that thread.
+	 */
+	private void rebalanceIfSkewed(){
+		if(!restructureLock.tryLock()){
+			return;
+		}
+		try{
+			for(int round=0;round<layout.shards.length && isSkewed(layout);round++){
+				if(!splitLargestShard(layout)){
+					return;
+				}
+			}
+		}finally{
+			restructureLock.unlock();
+		}
+	}
+
+	/*
+	 * Checks whether the largest shard holds more than SKEW_FACTOR times the average shard size.
+	 * Sizes are read without the shard locks, so this is only an estimate, which is all it needs to be.
+	 */
+	private static boolean isSkewed(Layout current){
+		long total = 0;
+		int largest = 0;
+
+		for(Shard shard:current.shards){
+			int shardSize = shard.tree.size();
+			total += shardSize;
+			largest = Math.max(largest, shardSize);
+		}
+		return total >= MIN_SIZE_FOR_REBALANCE
+				&& (long) largest * current.shards.length > total * SKEW_FACTOR;
+	}
+
+	/*
+	 * Splits the largest shard of the given layout into two, and merges the pair of adjacent shards
+	 * (not including the largest one) with the fewest keys. With only two shards there is no such
+	 * pair, so the keys of both are divided evenly instead. Returns false if the layout couldn't
+	 * be changed. The restructure lock must be held by the caller.
+	 */
+	private boolean splitLargestShard(Layout current){
+		Shard[] shards = current.shards;
+		int largest = 0;
+		int pair = -1;
+		long pairSize = Long.MAX_VALUE;
+
+		for(int i=1;i<shards.length;i++){
+			if(shards[i].tree.size() > shards[largest].tree.size()){
+				largest = i;
+			}
+		}
+		for(int i=0;i + 1<shards.length;i++){
+			long size = (long) shards[i].tree.size() + shards[i + 1].tree.size();
+			if(i != largest && i + 1 != largest && size < pairSize){
+				pair = i;
+				pairSize = size;
+			}
+		}
+
+		if(pair < 0){
+			return (shards.length == 2) && replaceShards(current, 0, 2, 2, 0, 0);
+		}
+		return replaceShards(current, largest, largest + 1, 2, pair, pair + 2);
+	}
+
+	/*
+	 * Replaces the shards in the range [from, to) of the given layout with newCount shards that
+	 * divide their keys evenly, and the shards in the range [mergeFrom, mergeTo) (which may be
+	 * empty, and must not overlap the first range) with a single shard holding all of their keys.
+	 * The replaced shards are locked while their keys are copied, then the new layout is published,
+	 * and only then are they retired and unlocked, so their waiting operations retry with the new
+	 * layout. Returns false, leaving the layout as it is, if the key space of the first range is
+	 * too narrow for newCount shards. The restructure lock must be held by the caller.
+	 */
+	private boolean replaceShards(Layout current, int from, int to, int newCount, int mergeFrom,
+			int mergeTo){
+		Layout next;
+
+		lockRange(current, mergeFrom, mergeTo);
+		lockRange(current, from, to);
+		try{
+			// The range with the higher indices is replaced first, so the indices of the other stay valid.
+			if(mergeFrom > from){
+				next = current.replace(mergeFrom, mergeTo, 1);
+				next = (next != null) ? next.replace(from, to, newCount) : null;
+			}else{
+				next = current.replace(from, to, newCount);
+				next = (next != null && mergeTo > mergeFrom) ? next.replace(mergeFrom, mergeTo, 1) : next;
+			}
+			if(next == null){
+				return false;
+			}
+
+			layout = next;
+			for(int i=from;i<to;i++){
+				current.shards[i].isRetired = true;
+			}
+			for(int i=mergeFrom;i<mergeTo;i++){
+				current.shards[i].isRetired = true;
+			}
+			return true;
+		}finally{
+			unlockRange(current, from, to);
+			unlockRange(current, mergeFrom, mergeTo);
+		}
+	}
+
+	/*
+	 * Takes the write locks of the shards in the range [from, to) of the given layout, in order.
+	 */
+	private static void lockRange(Layout current, int from, int to){
+		for(int i=from;i<to;i++){
+			current.shards[i].lock.writeLock().lock();
+		}
+	}
+
+	/*
+	 * Releases the write locks of the shards in the range [from, to) of the given layout.
+	 */
+	private static void unlockRange(Layout current, int from, int to){
+		for(int i=from;i<to;i++){
+			current.shards[i].lock.writeLock().unlock();
+		}
+	}
+
+
+	/*
+	 * The boundaries of the shards, and the shards themselves. A layout is never changed after it
+	 * is published - a new one is built instead, reusing the shards that didn't change.
+	 */
+	private static class Layout{
+
+		private final int[] lowerBounds;
+		private final Shard[] shards;
+
+		private Layout(int[] lowerBounds, Shard[] shards){
+			this.lowerBounds = lowerBounds;
+			this.shards = shards;
+		}
+
+		/*
+		 * Returns the index of the shard that owns the given key, by binary searching the lower
+		 * bounds.
+		 */
+		private int findShard(int key){
+			int index = Arrays.binarySearch(lowerBounds, key);
+			if(index >= 0){
+				return index;
+			}
+			// binarySearch returns -(insertion point) - 1. The owning shard is the one before the
+			// insertion point. The first lower bound is always Integer.MIN_VALUE, so it is never -1.
+			return -index - 2;
+		}
+
+		/*
+		 * Returns a new layout in which the shards in the range [from, to) are replaced by newCount
+		 * shards, built directly from their keys, with the new boundaries picked as equally spaced
+		 * quantiles of these keys. Returns null if the range is too narrow to hold newCount shards
+		 * with unique lower bounds. The replaced shards must not be changed during the call.
+		 */
+		private Layout replace(int from, int to, int newCount){
+			int total = 0;
+			int position = 0;
+			int[] keys;
+			int newLength = shards.length - (to - from) + newCount;
+			int[] newLowerBounds = new int[newLength];
+			Shard[] newShards = new Shard[newLength];
+
+			for(int i=from;i<to;i++){
+				total += shards[i].tree.size();
+			}
+			keys = new int[total];
+			for(int i=from;i<to;i++){
+				for(int key:shards[i].tree){
+					keys[position++] = key;
+				}
+			}
+
+			System.arraycopy(lowerBounds, 0, newLowerBounds, 0, from);
+			System.arraycopy(shards, 0, newShards, 0, from);
+			System.arraycopy(lowerBounds, to, newLowerBounds, from + newCount, shards.length - to);
+			System.arraycopy(shards, to, newShards, from + newCount, shards.length - to);
+
+			newLowerBounds[from] = lowerBounds[from];
+			for(int i=1;i<newCount;i++){
+				int cut = (int) ((long) total * i / newCount);
+				int previous = newLowerBounds[from + i - 1];
+				// A shard with no keys still needs a unique lower bound, so the bounds stay ascending.
+				if(cut < total && keys[cut] > previous){
+					newLowerBounds[from + i] = keys[cut];
+				}else if(previous < Integer.MAX_VALUE
+						&& (to == shards.length || previous + 1 < lowerBounds[to])){
+					newLowerBounds[from + i] = previous + 1;
+				}else{
+					// The key range is exhausted - the remaining shards can't own any key.
+					return null;
+				}
+			}
+
+			for(int i=0;i<newCount;i++){
+				int first = lowerBound(keys, newLowerBounds[from + i]);
+				int last = (i + 1 < newCount) ? lowerBound(keys, newLowerBounds[from + i + 1]) : total;
+				newShards[from + i] = new Shard(AvlTree.buildFromSorted(keys, first, last));
+			}
+			return new Layout(newLowerBounds, newShards);
+		}
+	}
+
+
+	/*
+	 * A single shard - an AVL tree, the lock that guards it, and the state that lock also guards.
+	 */
+	private static class Shard{
+
+		private final AvlTree tree;
+		private final ReadWriteLock lock;
+		/* Set once the shard's keys were moved to new shards. It is never used again afterwards. */
+		private boolean isRetired;
+		/* Successful additions since the last skew check triggered by this shard. */
+		private int addsSinceSkewCheck;
+
+		private Shard(AvlTree tree){
+			this.tree = tree;
+			lock = new ReentrantReadWriteLock();
+			isRetired = false;
+			addsSinceSkewCheck = 0;
+		}
+
+		/*
+		 * Adds or removes the keys in the range [from, to) of the given array, under a single
+		 * acquisition of the shard lock. Returns the number of keys that were added or removed, or
+		 * SHARD_RETIRED if the shard was retired, in which case nothing was changed.
+		 */
+		private int applyAll(int[] keys, int from, int to, boolean isAdd){
+			int changed = 0;
+
+			if(from >= to){
+				return 0;
+			}
+			lock.writeLock().lock();
+			try{
+				if(isRetired){
+					return SHARD_RETIRED;
+				}
+				for(int i=from;i<to;i++){
+					if(isAdd ? tree.add(keys[i]) : tree.delete(keys[i])){
+						changed ++;
+					}
+				}
+			}finally{
+				lock.writeLock().unlock();
+			}
+			return changed;
+		}
+	}
+
+
+	/**
+	 * Iterates over the container in ascending order, one shard at a time. The keys of the current
+	 * shard are copied under its read lock, and the next shard is located by the last returned key,
+	 * so the iteration stays correct even if the shards are replaced between two copies.
+	 */
+	private class ShardIterator implements Iterator<Integer>{
+
+		private int[] buffer;
+		private int bufferPosition;
+		private int bufferLength;
+		private boolean hasLastKey;
+		private boolean isExhausted;
+		private int lastKey;
+
+
+		/**
+		 * Constructor. Nothing is copied until the first call to hasNext() or next().
+		 */
+		public ShardIterator(){
+			buffer = new int[0];
+			bufferPosition = 0;
+			bufferLength = 0;
+			hasLastKey = false;
+			isExhausted = false;
+		}
+
+		public boolean hasNext(){
+			while(bufferPosition == bufferLength && !isExhausted){
+				fillBuffer();
+			}
+			return bufferPosition < bufferLength;
+		}
+
+		public Integer next(){
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			lastKey = buffer[bufferPosition++];
+			hasLastKey = true;
+			return lastKey;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+
+		/*
+		 * Copies the keys of the shard that follows the last returned key into the buffer. Only keys
+		 * greater than the last returned one are copied, in case the boundaries moved in the meantime.
+		 * If the shard was retired before its lock was taken, nothing is copied, and the next call
+		 * uses the new layout.
+		 */
+		private void fillBuffer(){
+			Layout current = layout;
+			int shardIndex;
+			Shard shard;
+
+			bufferPosition = 0;
+			bufferLength = 0;
+			if(hasLastKey && lastKey == Integer.MAX_VALUE){
+				isExhausted = true;
+				return;
+			}
+
+			shardIndex = hasLastKey ? current.findShard(lastKey + 1) : 0;
+			shard = current.shards[shardIndex];
+			shard.lock.readLock().lock();
+			try{
+				if(shard.isRetired){
+					return;
+				}
+				if(buffer.length < shard.tree.size()){
+					buffer = new int[shard.tree.size()];
+				}
+				for(int key:shard.tree){
+					if(!hasLastKey || key > lastKey){
+						buffer[bufferLength++] = key;
+					}
+				}
+			}finally{
+				shard.lock.readLock().unlock();
+			}
+
+			if(bufferLength == 0){
+				// Nothing left in this shard - continue from the start of the next one, if any.
+				if(shardIndex + 1 == current.shards.length){
+					isExhausted = true;
+				}else{
+					lastKey = current.lowerBounds[shardIndex + 1] - 1;
+					hasLastKey = true;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package oop.ex4.data_structures;
+
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+
+/**
+ * This class represents an AVL tree for a single writer thread and many reader threads, in which
+ * readers never wait and never lock.
+ * The writer never changes a node that readers may see. Instead, add() and delete() copy the nodes
+ * on the path to the change (rebalancing the copies as needed), and publish the result as a new
+ * immutable AvlTreeSnapshot through a single volatile field. A reader reads that field once and works
+ * on the version it got, so it can never see a half-rotated tree. Old versions are reclaimed by the
+ * garbage collector once no reader holds them.
+ * Writes are serialized with a lock, so several writers are safe, but they will wait for each other.
+ */
+public class SnapshotAvlTree implements Iterable<Integer>{
+
+	/* The latest published version. Writing it is what makes a change visible to the readers. */
+	private volatile AvlTreeSnapshot current;
+
+
+	/**
+	 * The default constructor - creates an empty tree.
+	 */
+	public SnapshotAvlTree(){
+		current = new AvlTreeSnapshot(null, 0);
+	}
+
+
+	/**
+	 * Add a new Node with the given key to the tree, and publishes the new version.
+	 * @param newValue the value of the new node to add.
+	 * @return true if the value to add is not already in the tree
+	 * and it was successfully added, false otherwise.
+	 */
+	public synchronized boolean add(int newValue){
+		AvlTreeSnapshot previous = current;
+		AvlNode newRoot = insert(previous.getRoot(), newValue);
+
+		if(newRoot == previous.getRoot()){ // Nothing was copied - the value already existed.
+			return false;
+		}
+		current = new AvlTreeSnapshot(newRoot, previous.size() + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the node with the given value from the tree, if it exists, and publishes the new
+	 * version.
+	 * @param toDelete the value to remove from the tree.
+	 * @return true if the given value was found and deleted, false otherwise.
+	 */
+	public synchronized boolean delete(int toDelete){
+		AvlTreeSnapshot previous = current;
+		AvlNode newRoot = remove(previous.getRoot(), toDelete);
+
+		if(newRoot == previous.getRoot()){ // Nothing was copied - the value wasn't found.
+			return false;
+		}
+		current = new AvlTreeSnapshot(newRoot, previous.size() - 1);
+		return true;
+	}
+
+	/**
+	 * Check whether the latest version of the tree contains the given input value. Never blocks.
+	 * @param searchVal The value to search for.
+	 * @return The depth of the node (0 for the root) with the
+	 * given value if it was found in the tree, -1 otherwise.
+	 */
+	public int contains(int searchVal){
+		return current.contains(searchVal);
+	}
+
+	/**
+	 * @return The Number of nodes in the latest version of the tree.
+	 */
+	public int size(){
+		return current.size();
+	}
+
+	/**
+	 * @return The latest published version of the tree. It will never change, no matter what
+	 * the writer does afterwards.
+	 */
+	public AvlTreeSnapshot snapshot(){
+		return current;
+	}
+
+	/**
+	 * @return An iterator over the latest version of the tree in an ascending order. Changes made
+	 * after the iterator was created are not reflected in it. It does not implement remove().
+	 */
+	public Iterator<Integer> iterator(){
+		return current.iterator();
+	}
+
+	/**
+	 * @return Same as iterator(), but returns the keys as primitive ints.
+	 */
+	public PrimitiveIterator.OfInt intIterator(){
+		return current.intIterator();
+	}
+
+
+	/*
+	 * Returns the root of a copy of the given subtree with the given value added to it. Only the
+	 * nodes on the path to the new node are copied. If the value already exists, the given node
+	 * itself is returned, so the caller can tell nothing changed.
+	 */
+	private AvlNode insert(AvlNode node, int newValue){
+		AvlNode newChild;
+
+		if(node == null){
+			return makeNode(newValue, null, null);
+		}
+
+		if(node.getKey() == newValue){
+			return node;
+		}else if(node.getKey() < newValue){
+			newChild = insert(node.getRightChild(), newValue);
+			if(newChild == node.getRightChild()){
+				return node;
+			}
+			return balance(node.getKey(), node.getLeftChild(), newChild, newChild);
+		}else{
+			newChild = insert(node.getLeftChild(), newValue);
+			if(newChild == node.getLeftChild()){
+				return node;
+			}
+			return balance(node.getKey(), newChild, node.getRightChild(), newChild);
+		}
+	}
+
+	/*
+	 * Returns the root of a copy of the given subtree without the given value. If the node with
+	 * the value has two children, his copy takes the key of his successor, which is removed from
+	 * the right subtree instead. If the value doesn't exist, the given node itself is returned.
+	 * A removal only makes the changed side shorter, so a rotation always copies the other, shared
+	 * side - there is no fresh child for balance() to reuse.
+	 */
+	private AvlNode remove(AvlNode node, int toDelete){
+		AvlNode newChild;
+		AvlNode successor;
+
+		if(node == null){
+			return null;
+		}
+
+		if(node.getKey() < toDelete){
+			newChild = remove(node.getRightChild(), toDelete);
+			if(newChild == node.getRightChild()){
+				return node;
+			}
+			return balance(node.getKey(), node.getLeftChild(), newChild, null);
+		}else if(node.getKey() > toDelete){
+			newChild = remove(node.getLeftChild(), toDelete);
+			if(newChild == node.getLeftChild()){
+				return node;
+			}
+			return balance(node.getKey(), newChild, node.getRightChild(), null);
+		}
+
+		// This is the node to remove.
+		if(node.getLeftChild() == null){
+			return node.getRightChild();
+		}else if(node.getRightChild() == null){
+			return node.getLeftChild();
+		}else{
+			// The successor is the leftmost node of the right subtree.
+			successor = node.getRightChild();
+			while(successor.getLeftChild() != null){
+				successor = successor.getLeftChild();
+			}
+			newChild = remove(node.getRightChild(), successor.getKey());
+			return balance(successor.getKey(), node.getLeftChild(), newChild, null);
+		}
+	}
+
+	/*
+	 * Creates a new node with the given key and children, which differ in height by at most two,
+	 * and rotates it if they differ by two. The rotations follow the same RR/RL/LL/LR scenarios as
+	 * AvlTree, except that they create new nodes instead of changing the existing ones. The one
+	 * exception is freshChild - a child that was created earlier in this same write (or null). It is
+	 * not yet reachable from any published version, so a rotation relinks it in place instead of
+	 * copying it again. Returns the root of the new, balanced subtree.
+	 */
+	private AvlNode balance(int key, AvlNode left, AvlNode right, AvlNode freshChild){
+		int leftHeight = AvlTree.getNodeHeight(left);
+		int rightHeight = AvlTree.getNodeHeight(right);
+
+		if(rightHeight - leftHeight > AvlTree.MAXIMAL_NODE_DIFFERENCE){
+			if(AvlTree.getNodeHeight(right.getLeftChild())
+					> AvlTree.getNodeHeight(right.getRightChild())){
+				// RL - the right child's left child becomes the root of the subtree.
+				AvlNode rightLeft = right.getLeftChild();
+				return makeNode(rightLeft.getKey(),
+						makeNode(key, left, rightLeft.getLeftChild()),
+						relink(right, rightLeft.getRightChild(), right.getRightChild(), freshChild));
+			}
+			// RR - the right child becomes the root of the subtree.
+			return relink(right, makeNode(key, left, right.getLeftChild()), right.getRightChild(),
+					freshChild);
+
+		}else if(leftHeight - rightHeight > AvlTree.MAXIMAL_NODE_DIFFERENCE){
+			if(AvlTree.getNodeHeight(left.getRightChild())
+					> AvlTree.getNodeHeight(left.getLeftChild())){
+				// LR - the left child's right child becomes the root of the subtree.
+				AvlNode leftRight = left.getRightChild();
+				return makeNode(leftRight.getKey(),
+						relink(left, left.getLeftChild(), leftRight.getLeftChild(), freshChild),
+						makeNode(key, leftRight.getRightChild(), right));
+			}
+			// LL - the left child becomes the root of the subtree.
+			return relink(left, left.getLeftChild(), makeNode(key, left.getRightChild(), right),
+					freshChild);
+		}
+		return makeNode(key, left, right);
+	}
+
+	/*
+	 * Returns a node with the key of the given node and the given children. If the node is
+	 * freshChild it is changed in place, otherwise it is shared with a published version and a new
+	 * node is created instead.
+	 */
+	private static AvlNode relink(AvlNode node, AvlNode left, AvlNode right, AvlNode freshChild){
+		if(node != freshChild){
+			return makeNode(node.getKey(), left, right);
+		}
+		node.setLeftChild(left);
+		node.setRightChild(right);
+		node.setHeight(Math.max(AvlTree.getNodeHeight(left), AvlTree.getNodeHeight(right)) + 1);
+		return node;
+	}
+
+	/*
+	 * Creates a new node with the given key and children, and sets its height. The node is fully
+	 * built before it is linked into a published version, and is never changed afterwards.
+	 */
+	private static AvlNode makeNode(int key, AvlNode left, AvlNode right){
+		AvlNode node = new AvlNode(key, null);
+		node.setLeftChild(left);
+		node.setRightChild(right);
+		node.setHeight(Math.max(AvlTree.getNodeHeight(left), AvlTree.getNodeHeight(right)) + 1);
+		return node;
+	}
+
+}